@@ -2,12 +2,21 @@
 
 import org.apache.commons.lang3.StringUtils;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.bundling.Zip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class DiffSettings {
     private String clean;
@@ -20,25 +29,34 @@ public class DiffSettings {
     private final DirectoryProperty modifiedProperty;
     private final DirectoryProperty patchesProperty;
     private final DirectoryProperty outputProperty;
+    private final RegularFileProperty outputArchiveProperty;
     private final DirectoryProperty missedProperty;
     private final Property<SourceSet> cleanSourceSetProperty;
     private final Property<SourceSet> modifiedSourceSetProperty;
     private final Property<SourceSet> patchesSourceSetProperty;
     private final Property<SourceSet> outputSourceSetProperty;
+    private final Property<Integer> memoryBudgetProperty;
+    private final Property<ResourceHandling> resourceHandlingProperty;
     private final Project project;
     private String originalTag;
     private boolean sanitizeOriginal;
+    private boolean separateMissedPass;
+    private int shards = 1;
+    private boolean fusedApply;
 
     public DiffSettings(ObjectFactory objectFactory, Project project) {
         this.cleanProperty = objectFactory.directoryProperty();
         this.modifiedProperty = objectFactory.directoryProperty();
         this.patchesProperty = objectFactory.directoryProperty();
         this.outputProperty = objectFactory.directoryProperty();
+        this.outputArchiveProperty = objectFactory.fileProperty();
         this.missedProperty = objectFactory.directoryProperty();
         this.cleanSourceSetProperty = objectFactory.property(SourceSet.class);
         this.modifiedSourceSetProperty = objectFactory.property(SourceSet.class);
         this.patchesSourceSetProperty = objectFactory.property(SourceSet.class);
         this.outputSourceSetProperty = objectFactory.property(SourceSet.class);
+        this.memoryBudgetProperty = objectFactory.property(Integer.class);
+        this.resourceHandlingProperty = objectFactory.property(ResourceHandling.class).convention(ResourceHandling.COPY);
         this.project = project;
     }
 
@@ -67,12 +85,7 @@ public String getPatches() {
      */
     public void setPatches(String patches) {
         this.patches = patches;
-        this.patchesProperty.convention(project.provider(() -> {
-            var dir = project.getLayout().getProjectDirectory().dir("src").dir(patches).dir("resources");
-            if (!dir.getAsFile().exists())
-                dir.getAsFile().mkdirs();
-            return dir;
-        }));
+        this.patchesProperty.convention(project.getLayout().getProjectDirectory().dir("src").dir(patches).dir("resources"));
     }
 
     public String getModified() {
@@ -110,7 +123,9 @@ public Configuration getSource() {
     }
 
     /**
-     * The configuration to pull clean files from.
+     * The configuration to pull clean files from. Diff blocks with the same source configuration share a single
+     * extraction, into the clean directory of the first such block; a clean directory set on a later block is ignored,
+     * with a warning.
      */
     public void setSource(Configuration source) {
         this.source = source;
@@ -123,7 +138,8 @@ public Configuration getClasspath() {
     }
 
     /**
-     * The configuration to use as a classpath while parsing files.
+     * The configuration to use as a classpath while parsing files. Tasks with the same resolved classpath share the
+     * class loaders and indexes built from it for the rest of the build.
      */
     public void setClasspath(Configuration classpath) {
         this.classpath = classpath;
@@ -157,6 +173,15 @@ public DirectoryProperty getOutputDirectory() {
         return outputProperty;
     }
 
+    /**
+     * An archive to write output files to, for patch application. When set, the output directory is left alone and
+     * the patched sources are written straight to a zip with sorted entries and fixed timestamps instead. A source set
+     * cannot read from an archive, so the output source set is then given no sources by this block.
+     */
+    public RegularFileProperty getOutputArchive() {
+        return outputArchiveProperty;
+    }
+
     /**
      * The directory missed patches are placed in during patch application
      */
@@ -192,10 +217,33 @@ public Property<SourceSet> getOutputSourceSet() {
         return outputSourceSetProperty;
     }
 
+    /**
+     * An approximate heap budget, in MiB, for the Spoon models held at once while processing sources. When set, files
+     * are parsed together in chunks sized to fit the budget, and each chunk's model is released before the next is
+     * loaded; when unset, every file is parsed on its own.
+     */
+    public Property<Integer> getMemoryBudget() {
+        return memoryBudgetProperty;
+    }
+
+    /**
+     * How non-java files from the clean source are placed into the patched output; defaults to copying them. The
+     * modified directory is edited in place, so it always gets copies, whatever is set here.
+     */
+    public Property<ResourceHandling> getResourceHandling() {
+        return resourceHandlingProperty;
+    }
+
+    /**
+     * The extraction of a source configuration, shared by every diff block with that source, and the clean directory it
+     * extracts to.
+     */
+    record Extraction(TaskProvider<DocsExtractTask> task, DirectoryProperty directory) {}
+
     private static final String PREFIX_APPLY = "docPatcherApply";
     private static final String PREFIX_SETUP = "docPatcherSetup";
 
-    void makeTasks(Project project) {
+    void makeTasks(Project project, Map<Configuration, Extraction> extractions) {
         var sourceSets = (SourceSetContainer)project.getExtensions().getByName("sourceSets");
         SourceSet cleanSourceSet = getCleanSourceSet().getOrNull();
         if (cleanSourceSet == null)
@@ -210,44 +258,157 @@ void makeTasks(Project project) {
         if (outputSourceSet == null)
             outputSourceSet = sourceSets.maybeCreate(getOutput());
 
-        var cleanTask = project.getTasks().register(PREFIX_SETUP+StringUtils.capitalize(getClean())+"ExtractFromSources", DocsExtractTask.class, task -> {
-            task.dependsOn(getSource());
-            task.getSources().from(getSource());
-            task.getOutputDirectory().set(getCleanDirectory());
-            task.getReadOnly().set(true);
-        });
-        project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getPatches())+"GeneratePatches", MakePatchesTask.class, task -> {
+        var existingExtraction = extractions.get(getSource());
+        TaskProvider<DocsExtractTask> cleanTask;
+        if (existingExtraction == null) {
+            cleanTask = project.getTasks().register(PREFIX_SETUP+StringUtils.capitalize(getClean())+"ExtractFromSources", DocsExtractTask.class, task -> {
+                task.dependsOn(getSource());
+                task.getSources().from(getSource());
+                task.getOutputDirectory().set(getCleanDirectory());
+                task.getReadOnly().set(true);
+            });
+            extractions.put(getSource(), new Extraction(cleanTask, getCleanDirectory()));
+        } else {
+            cleanTask = existingExtraction.task();
+            var configured = getCleanDirectory().getOrNull();
+            var shared = existingExtraction.directory().get();
+            // Anything other than the default location was set on purpose, and is about to be replaced
+            if (configured != null && !configured.equals(shared) && (clean == null || !configured.equals(project.getLayout().getProjectDirectory().dir("src").dir(clean).dir("java")))) {
+                project.getLogger().warn("Ignoring clean directory {} of the diff block for {}: it shares the extraction of {} into {} with an earlier diff block", configured.getAsFile(), getModified(), getSource().getName(), shared.getAsFile());
+            }
+            getCleanDirectory().set(existingExtraction.directory());
+        }
+        if (getShards() == 1) {
+            project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getPatches())+"GeneratePatches", MakePatchesTask.class, task -> {
+                configureMakePatches(task);
+                task.getOutputDirectory().set(getPatchesDirectory());
+            });
+        } else {
+            List<TaskProvider<MakePatchesTask>> shardTasks = new ArrayList<>();
+            var mergeTask = project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getPatches())+"GeneratePatches", MergeShardsTask.class, task -> {
+                for (var shardTask : shardTasks) {
+                    task.getShards().from(shardTask.flatMap(MakePatchesTask::getOutputDirectory));
+                }
+                task.getOutputDirectory().set(getPatchesDirectory());
+            });
+            for (int i = 0; i < getShards(); i++) {
+                int shard = i;
+                shardTasks.add(project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getPatches())+"GeneratePatchesShard"+shard, MakePatchesTask.class, task -> {
+                    configureMakePatches(task);
+                    task.getShard().set(shard);
+                    task.getShardCount().set(getShards());
+                    task.getOutputDirectory().set(project.getLayout().getBuildDirectory().dir("docPatcher/"+getPatches()+"/shards/"+shard));
+                    forwardFilters(project, mergeTask, task.getClasses(), task.getPackages());
+                }));
+            }
+        }
+        project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getPatches())+"WatchPatches", WatchPatchesTask.class, task -> {
             task.getClean().set(getCleanDirectory());
             task.getModified().set(getModifiedDirectory());
             task.getOutputDirectory().set(getPatchesDirectory());
             task.getClasspath().from(getClasspath());
-        });
-        project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getOutput())+"ApplyPatches", ApplyPatchesTask.class, task -> {
-            task.getPatches().set(getPatchesDirectory());
-            task.getSource().set(getCleanDirectory());
-            task.getOutputDirectory().set(getOutputDirectory());
-            if (getOriginalTag() != null) {
-                task.getOriginalTag().set(getOriginalTag());
-            }
-            task.getSanitizeOriginal().set(getSanitizeOriginal());
-            task.getClasspath().from(getClasspath());
             task.dependsOn(cleanTask);
         });
-        var uncheckedApplyTask = project.getTasks().register(PREFIX_SETUP+StringUtils.capitalize(getModified())+"ApplyPatchesUnchecked", ApplyPatchesTask.class, task -> {
+        project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getPatches())+"VerifyPatches", VerifyPatchesTask.class, task -> {
             task.getPatches().set(getPatchesDirectory());
             task.getSource().set(getCleanDirectory());
-            task.getOutputDirectory().set(getModifiedDirectory());
-            task.getKeepOriginal().set(false);
+            task.getReport().set(project.getLayout().getBuildDirectory().file("docPatcher/"+getPatches()+"/verify.txt"));
             task.getClasspath().from(getClasspath());
+            task.getMemoryBudget().set(getMemoryBudget());
             task.dependsOn(cleanTask);
         });
-        project.getTasks().register(PREFIX_SETUP+StringUtils.capitalize(getModified())+"ApplyPatches", MissedPatchesTask.class, task -> {
-            task.getPatches().set(getPatchesDirectory());
-            task.getSource().set(getModifiedDirectory());
-            task.getOutputDirectory().set(getMissedDirectory());
-            task.getClasspath().from(getClasspath());
-            task.dependsOn(uncheckedApplyTask);
-        });
+        if (getFusedApply() && getShards() != 1) {
+            throw new RuntimeException("A fused apply cannot be split into shards");
+        }
+        TaskProvider<ApplyPatchesTask> outputApplyTask = null;
+        if (getShards() == 1) {
+            outputApplyTask = project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getOutput())+"ApplyPatches", ApplyPatchesTask.class, task -> {
+                configureApplyPatches(task, cleanTask);
+                if (getOutputArchive().isPresent()) {
+                    task.getOutputArchive().set(getOutputArchive());
+                } else {
+                    task.getOutputDirectory().set(getOutputDirectory());
+                }
+                if (getFusedApply()) {
+                    // The modified directory holds edits not yet made into patches, so only the setup task may write there
+                    task.getStrippedOutputDirectory().set(project.getLayout().getBuildDirectory().dir("docPatcher/"+getModified()+"/fused"));
+                    if (!getSeparateMissedPass()) {
+                        task.getMissedDirectory().set(getMissedDirectory());
+                    }
+                }
+            });
+        } else {
+            List<TaskProvider<ApplyPatchesTask>> shardTasks = new ArrayList<>();
+            // An archive is rewritten whole, so it takes no filters to forward
+            TaskProvider<MergeShardsTask> mergeTask = null;
+            if (getOutputArchive().isPresent()) {
+                project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getOutput())+"ApplyPatches", Zip.class, zip -> {
+                    for (var shardTask : shardTasks) {
+                        zip.from(shardTask.flatMap(ApplyPatchesTask::getOutputDirectory));
+                    }
+                    zip.getDestinationDirectory().set(project.getLayout().dir(getOutputArchive().map(it -> it.getAsFile().getParentFile())));
+                    zip.getArchiveFileName().set(getOutputArchive().map(it -> it.getAsFile().getName()));
+                    zip.setPreserveFileTimestamps(false);
+                    zip.setReproducibleFileOrder(true);
+                });
+            } else {
+                mergeTask = project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getOutput())+"ApplyPatches", MergeShardsTask.class, task -> {
+                    for (var shardTask : shardTasks) {
+                        task.getShards().from(shardTask.flatMap(ApplyPatchesTask::getOutputDirectory));
+                    }
+                    task.getOutputDirectory().set(getOutputDirectory());
+                });
+            }
+            var applyMergeTask = mergeTask;
+            for (int i = 0; i < getShards(); i++) {
+                int shard = i;
+                shardTasks.add(project.getTasks().register(PREFIX_APPLY+StringUtils.capitalize(getOutput())+"ApplyPatchesShard"+shard, ApplyPatchesTask.class, task -> {
+                    configureApplyPatches(task, cleanTask);
+                    task.getShard().set(shard);
+                    task.getShardCount().set(getShards());
+                    task.getOutputDirectory().set(project.getLayout().getBuildDirectory().dir("docPatcher/"+getOutput()+"/shards/"+shard));
+                    if (applyMergeTask != null) {
+                        forwardFilters(project, applyMergeTask, task.getClasses(), task.getPackages());
+                    }
+                }));
+            }
+        }
+        TaskProvider<? extends Task> uncheckedApplyTask;
+        if (getFusedApply()) {
+            var fusedApplyTask = outputApplyTask;
+            uncheckedApplyTask = project.getTasks().register(PREFIX_SETUP+StringUtils.capitalize(getModified())+"ApplyPatchesUnchecked", SyncSourcesTask.class, task -> {
+                task.getSource().set(fusedApplyTask.flatMap(ApplyPatchesTask::getStrippedOutputDirectory));
+                task.getOutputDirectory().set(getModifiedDirectory());
+            });
+        } else {
+            uncheckedApplyTask = project.getTasks().register(PREFIX_SETUP+StringUtils.capitalize(getModified())+"ApplyPatchesUnchecked", ApplyPatchesTask.class, task -> {
+                task.getPatches().set(getPatchesDirectory());
+                task.getSource().set(getCleanDirectory());
+                task.getOutputDirectory().set(getModifiedDirectory());
+                task.getKeepOriginal().set(false);
+                if (!getSeparateMissedPass()) {
+                    task.getMissedDirectory().set(getMissedDirectory());
+                }
+                task.getClasspath().from(getClasspath());
+                task.getMemoryBudget().set(getMemoryBudget());
+                // A link would let an edit to the modified directory change the clean source, shared by other diff blocks
+                task.getResourceHandling().set(ResourceHandling.COPY);
+                task.dependsOn(cleanTask);
+            });
+        }
+        if (getSeparateMissedPass()) {
+            project.getTasks().register(PREFIX_SETUP+StringUtils.capitalize(getModified())+"ApplyPatches", MissedPatchesTask.class, task -> {
+                task.getPatches().set(getPatchesDirectory());
+                task.getSource().set(getModifiedDirectory());
+                task.getOutputDirectory().set(getMissedDirectory());
+                task.getClasspath().from(getClasspath());
+                task.getMemoryBudget().set(getMemoryBudget());
+                task.dependsOn(uncheckedApplyTask);
+            });
+        } else {
+            project.getTasks().register(PREFIX_SETUP+StringUtils.capitalize(getModified())+"ApplyPatches", task ->
+                task.dependsOn(uncheckedApplyTask));
+        }
 
         cleanSourceSet.java(src ->
             src.srcDir(cleanProperty));
@@ -255,8 +416,39 @@ void makeTasks(Project project) {
             src.srcDir(modifiedProperty));
         patchesSourceSet.resources(src ->
             src.srcDir(patchesProperty));
-        outputSourceSet.java(src ->
-            src.srcDir(outputProperty));
+        if (!getOutputArchive().isPresent()) {
+            outputSourceSet.java(src ->
+                src.srcDir(outputProperty));
+        }
+    }
+
+    /**
+     * Has a shard take the filters given to the task that merges the shards, unless it is given its own. They are read
+     * through a plain provider, as a provider mapped from the merging task would make the shard depend on it.
+     */
+    private static void forwardFilters(Project project, TaskProvider<MergeShardsTask> mergeTask, ListProperty<String> classes, ListProperty<String> packages) {
+        classes.convention(project.provider(() -> mergeTask.get().getClasses().get()));
+        packages.convention(project.provider(() -> mergeTask.get().getPackages().get()));
+    }
+
+    private void configureMakePatches(MakePatchesTask task) {
+        task.getClean().set(getCleanDirectory());
+        task.getModified().set(getModifiedDirectory());
+        task.getClasspath().from(getClasspath());
+        task.getMemoryBudget().set(getMemoryBudget());
+    }
+
+    private void configureApplyPatches(ApplyPatchesTask task, TaskProvider<DocsExtractTask> cleanTask) {
+        task.getPatches().set(getPatchesDirectory());
+        task.getSource().set(getCleanDirectory());
+        if (getOriginalTag() != null) {
+            task.getOriginalTag().set(getOriginalTag());
+        }
+        task.getSanitizeOriginal().set(getSanitizeOriginal());
+        task.getClasspath().from(getClasspath());
+        task.getMemoryBudget().set(getMemoryBudget());
+        task.getResourceHandling().set(getResourceHandling());
+        task.dependsOn(cleanTask);
     }
 
     public String getOriginalTag() {
@@ -274,4 +466,48 @@ public boolean getSanitizeOriginal() {
     public void setSanitizeOriginal(boolean sanitizeOriginal) {
         this.sanitizeOriginal = sanitizeOriginal;
     }
+
+    public boolean getSeparateMissedPass() {
+        return separateMissedPass;
+    }
+
+    /**
+     * Whether to find missed patches in a separate pass over the modified source, rather than while patches are
+     * applied to it. The separate pass parses the whole modified source again; defaults to false.
+     */
+    public void setSeparateMissedPass(boolean separateMissedPass) {
+        this.separateMissedPass = separateMissedPass;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * How many tasks to split patch generation and application into, by a stable hash of each file's package name. With
+     * more than one, each shard is its own task writing into the build directory, which can run in parallel or on
+     * separate machines, and the usual task name merges their outputs into place, taking {@code --class} and
+     * {@code --package} filters on to the shards and then merging only the selected classes; defaults to 1.
+     */
+    public void setShards(int shards) {
+        if (shards < 1) {
+            throw new RuntimeException("Shard count must be at least 1, was " + shards);
+        }
+        this.shards = shards;
+    }
+
+    public boolean getFusedApply() {
+        return fusedApply;
+    }
+
+    /**
+     * Whether to produce the modified source in the same pass that produces the output, rather than in a task of its
+     * own. Each clean file is then read, parsed, stripped and matched against its patch once; injection, which parses
+     * the stripped source again, still runs once for each tree, so this saves the shared steps rather than half the
+     * work. The modified tree is written under the build directory, and only copied into the modified directory by
+     * the setup task. Cannot be combined with shards; defaults to false.
+     */
+    public void setFusedApply(boolean fusedApply) {
+        this.fusedApply = fusedApply;
+    }
 }
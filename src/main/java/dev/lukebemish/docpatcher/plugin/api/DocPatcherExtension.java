@@ -2,13 +2,17 @@
 
 import org.gradle.api.Action;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.model.ObjectFactory;
 
 import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
 
 public abstract class DocPatcherExtension {
     private final Project project;
     private final ObjectFactory objectFactory;
+    private final Map<Configuration, DiffSettings.Extraction> extractions = new HashMap<>();
     @Inject
     public DocPatcherExtension(ObjectFactory objectFactory, Project project) {
         this.project = project;
@@ -18,6 +22,6 @@ public DocPatcherExtension(ObjectFactory objectFactory, Project project) {
     public void diff(Action<DiffSettings> action) {
         var settings = new DiffSettings(objectFactory, project);
         action.execute(settings);
-        settings.makeTasks(project);
+        settings.makeTasks(project, extractions);
     }
 }
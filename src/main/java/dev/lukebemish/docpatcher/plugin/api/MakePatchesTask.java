@@ -1,28 +1,28 @@
 package dev.lukebemish.docpatcher.plugin.api;
 
-import dev.lukebemish.docpatcher.plugin.impl.SpoonJavadocVisitor;
-import dev.lukebemish.docpatcher.plugin.impl.Utils;
-import net.neoforged.javadoctor.spec.ClassJavadoc;
+import dev.lukebemish.docpatcher.plugin.impl.ClasspathContext;
+import dev.lukebemish.docpatcher.plugin.impl.ClasspathService;
+import dev.lukebemish.docpatcher.plugin.impl.CleanCache;
+import dev.lukebemish.docpatcher.plugin.impl.FileTimings;
+import dev.lukebemish.docpatcher.plugin.impl.PatchGenerator;
+import dev.lukebemish.docpatcher.plugin.impl.SourceFilter;
+import dev.lukebemish.docpatcher.plugin.impl.TaskProgress;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.Project;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
-import org.gradle.api.file.FileSystemOperations;
-import org.gradle.api.file.RelativePath;
-import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
-import spoon.Launcher;
-import spoon.support.compiler.FileSystemFile;
+import org.gradle.api.tasks.options.Option;
 
 import javax.inject.Inject;
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.List;
 
 public abstract class MakePatchesTask extends DefaultTask {
     @InputFiles
@@ -35,25 +35,38 @@ public abstract class MakePatchesTask extends DefaultTask {
     public abstract DirectoryProperty getOutputDirectory();
     @InputFiles
     public abstract ConfigurableFileCollection getClasspath();
+    @Internal
+    @Optional
+    public abstract Property<Integer> getMemoryBudget();
+    @Internal
+    @Optional
+    public abstract DirectoryProperty getTimingsDirectory();
+    @Internal
+    @Optional
+    public abstract Property<ClasspathService> getClasspathService();
+    @Internal
+    @Optional
+    public abstract DirectoryProperty getCleanCache();
+    @Input
+    @Option(option = "class", description = "Only regenerates the patch for the given class, leaving other patches untouched. May be repeated.")
+    public abstract ListProperty<String> getClasses();
+    @Input
+    @Option(option = "package", description = "Only regenerates patches for classes in the given package, leaving other patches untouched. May be repeated.")
+    public abstract ListProperty<String> getPackages();
+    @Input
+    public abstract Property<Integer> getShard();
+    @Input
+    public abstract Property<Integer> getShardCount();
 
-    @Inject
-    public MakePatchesTask(Project project) {
-        var version = project.getExtensions().getByType(JavaPluginExtension.class).getToolchain().getLanguageVersion();
-        if (version.isPresent()) {
-            this.getJavaVersion().convention(version.get().asInt());
-        }
-    }
-
-    private Launcher makeLauncher(ClassLoader classLoader) {
-        return Utils.makeLauncher(getJavaVersion().get(), classLoader);
-    }
-
-    private ClassLoader makeClassLoader() {
-        return Utils.makeClassLoader(getClasspath().getFiles().stream().map(File::getPath));
+    public MakePatchesTask() {
+        getClasses().convention(List.of());
+        getPackages().convention(List.of());
+        getShard().convention(0);
+        getShardCount().convention(1);
     }
 
     @Inject
-    protected abstract FileSystemOperations getFileSystemOperations();
+    protected abstract ObjectFactory getObjectFactory();
 
     @TaskAction
     public void generatePatches() {
@@ -61,48 +74,24 @@ public void generatePatches() {
             return;
         }
 
-        getFileSystemOperations().delete(s -> s.delete(getOutputDirectory()));
-
-        ClassLoader sourceClassLoader = makeClassLoader();
-
-        var visitor = new SpoonJavadocVisitor.Comparing(false, sourceClassLoader);
+        SourceFilter filter = SourceFilter.of(getClasses().get(), getPackages().get()).shard(getShard().get(), getShardCount().get());
+        try (var lease = ClasspathService.lease(getClasspathService(), getClasspath().getFiles())) {
+            ClasspathContext classpath = lease.context();
+            CleanCache cache = getCleanCache().isPresent() ? new CleanCache(getCleanCache().get().getAsFile().toPath(), getJavaVersion().get(), getClasspath().getFiles()) : null;
 
-        getModified().getAsFileTree().visit(fileVisitDetails -> {
-            if (!fileVisitDetails.isDirectory() && fileVisitDetails.getFile().getName().endsWith(".java")) {
-                RelativePath relativePath = fileVisitDetails.getRelativePath();
-                String className = String.join("/", relativePath.getSegments());
-                className = className.substring(0, className.length() - 5);
-                try {
-                    Launcher mLauncher = makeLauncher(sourceClassLoader);
-                    mLauncher.addInputResource(new FileSystemFile(fileVisitDetails.getFile()));
-                    var mTypes = Utils.buildModel(mLauncher).getAllTypes().stream().toList();
-                    if (mTypes.size() != 1) {
-                        throw new RuntimeException("Expected 1 type, found " + mTypes.size());
-                    }
-                    var modified = mTypes.get(0);
-                    Path cleanPath = getClean().get().getAsFile().toPath().resolve(relativePath.getPathString());
-                    if (!Files.exists(cleanPath)) {
-                        throw new RuntimeException("Clean file does not exist: " + cleanPath);
-                    }
-                    Launcher cLauncher = makeLauncher(sourceClassLoader);
-                    cLauncher.addInputResource(new FileSystemFile(cleanPath.toFile()));
-                    var cTypes = Utils.buildModel(cLauncher).getAllTypes().stream().toList();
-                    if (cTypes.size() != 1) {
-                        throw new RuntimeException("Expected 1 type, found " + cTypes.size());
-                    }
-                    var clean = cTypes.get(0);
-
-                    ClassJavadoc javadoc = visitor.visit(clean, modified);
-
-                    if (javadoc != null) {
-                        Path outputPath = getOutputDirectory().get().getAsFile().toPath().resolve(className + ".docpatcher.json");
-                        Files.createDirectories(outputPath.getParent());
-                        Files.writeString(outputPath, Utils.toJson(javadoc));
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+            int matched = new PatchGenerator(classpath, getJavaVersion().get(), cache).generate(
+                getClean().get().getAsFile().toPath(),
+                getModified().get().getAsFile().toPath(),
+                getOutputDirectory().get().getAsFile().toPath(),
+                filter,
+                getMemoryBudget().getOrNull(),
+                getTimingsDirectory().isPresent() ? FileTimings.load(getTimingsDirectory().get().getAsFile().toPath()) : null,
+                TaskProgress.create(getObjectFactory(), getLogger(), "Generating patches")
+            );
+            // A shard is expected to hold none of the selected classes most of the time
+            if (matched == 0 && !filter.isEmpty() && getShardCount().get() == 1) {
+                getLogger().warn("No sources in {} match the given classes or packages", getModified().get().getAsFile());
             }
-        });
+        }
     }
 }
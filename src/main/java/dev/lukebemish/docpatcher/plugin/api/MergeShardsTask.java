@@ -0,0 +1,61 @@
+package dev.lukebemish.docpatcher.plugin.api;
+
+import dev.lukebemish.docpatcher.plugin.impl.SourceFilter;
+import dev.lukebemish.docpatcher.plugin.impl.SourcePipeline;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Copies the outputs of the shards of a task into one directory. Files already holding the same contents are left
+ * alone. The class and package filters are read by the shards, so that they can be given to the task named on the
+ * command line, and limit what is merged: with a filter, the shards only rewrote the selected classes, and the rest of
+ * what they hold may be older than the output directory, so only the files of the selected classes are copied, or
+ * removed if no shard has them. Without one, every file the shards hold is copied and any other file is removed.
+ */
+public abstract class MergeShardsTask extends DefaultTask {
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getShards();
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+    @Input
+    @Option(option = "class", description = "Only processes the given class in each shard, leaving other outputs untouched. May be repeated.")
+    public abstract ListProperty<String> getClasses();
+    @Input
+    @Option(option = "package", description = "Only processes classes in the given package in each shard, leaving other outputs untouched. May be repeated.")
+    public abstract ListProperty<String> getPackages();
+
+    public MergeShardsTask() {
+        getClasses().convention(List.of());
+        getPackages().convention(List.of());
+    }
+
+    @TaskAction
+    public void merge() {
+        Path outputRoot = getOutputDirectory().get().getAsFile().toPath();
+        SourceFilter filter = SourceFilter.of(getClasses().get(), getPackages().get());
+        try (var pipeline = new SourcePipeline(outputRoot)) {
+            for (var shard : getShards().getFiles()) {
+                for (var file : pipeline.walk(shard.toPath())) {
+                    if (filter.matchesOutput(file.relativePath())) {
+                        pipeline.copy(file, false);
+                    }
+                }
+            }
+            pipeline.await();
+            pipeline.removeStale(outputRoot, filter::matchesOutput);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package dev.lukebemish.docpatcher.plugin.api;
+
+/**
+ * How {@link ApplyPatchesTask} places non-java files from the clean source into its output.
+ */
+public enum ResourceHandling {
+    /**
+     * Copy each file into the output.
+     */
+    COPY,
+    /**
+     * Hardlink each file into the output where the file system allows it, and copy it otherwise. Linked files share
+     * their contents, and read-only permissions, with the clean source, so this only suits outputs that are never
+     * edited in place.
+     */
+    LINK
+}
@@ -0,0 +1,36 @@
+package dev.lukebemish.docpatcher.plugin.api;
+
+import dev.lukebemish.docpatcher.plugin.impl.SourcePipeline;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.nio.file.Path;
+
+/**
+ * Copies a directory of sources over another, in place: files already holding the same contents are left alone, so
+ * their timestamps only change when their contents do, and files the source does not have are removed.
+ */
+public abstract class SyncSourcesTask extends DefaultTask {
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getSource();
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    @TaskAction
+    public void sync() {
+        Path outputRoot = getOutputDirectory().get().getAsFile().toPath();
+        try (var pipeline = new SourcePipeline(outputRoot)) {
+            for (var file : pipeline.walk(getSource().get().getAsFile().toPath())) {
+                pipeline.copy(file, false);
+            }
+            pipeline.await();
+            pipeline.removeStale(outputRoot);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package dev.lukebemish.docpatcher.plugin.api;
+
+import dev.lukebemish.docpatcher.plugin.impl.ClassSignatures;
+import dev.lukebemish.docpatcher.plugin.impl.ClasspathContext;
+import dev.lukebemish.docpatcher.plugin.impl.ClasspathService;
+import dev.lukebemish.docpatcher.plugin.impl.FileTimings;
+import dev.lukebemish.docpatcher.plugin.impl.JavadocStrippingVisitor;
+import dev.lukebemish.docpatcher.plugin.impl.PatchSet;
+import dev.lukebemish.docpatcher.plugin.impl.PhaseEvent;
+import dev.lukebemish.docpatcher.plugin.impl.SourceFiles;
+import dev.lukebemish.docpatcher.plugin.impl.SourcePipeline;
+import dev.lukebemish.docpatcher.plugin.impl.SpoonRemainingVisitor;
+import dev.lukebemish.docpatcher.plugin.impl.TaskProgress;
+import dev.lukebemish.docpatcher.plugin.impl.Utils;
+import net.neoforged.javadoctor.injector.JavadocInjector;
+import net.neoforged.javadoctor.injector.spoon.SpoonClassParser;
+import net.neoforged.javadoctor.spec.ClassJavadoc;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import spoon.Launcher;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Checks that every patch applies to the clean source, without writing any patched files. Injection problems and patch
+ * entries for members the source does not declare are written to a report, one line per problem, grouped by class.
+ */
+public abstract class VerifyPatchesTask extends DefaultTask {
+    @InputFiles
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getPatches();
+    @InputDirectory
+    public abstract DirectoryProperty getSource();
+    @OutputFile
+    public abstract RegularFileProperty getReport();
+    @Input
+    public abstract Property<Boolean> getFailOnProblems();
+    @Input
+    public abstract Property<Integer> getJavaVersion();
+    @InputFiles
+    public abstract ConfigurableFileCollection getClasspath();
+    @Internal
+    @Optional
+    public abstract Property<Integer> getMemoryBudget();
+    @Internal
+    @Optional
+    public abstract DirectoryProperty getTimingsDirectory();
+    @Internal
+    @Optional
+    public abstract Property<ClasspathService> getClasspathService();
+
+    public VerifyPatchesTask() {
+        getFailOnProblems().convention(true);
+    }
+
+    private Launcher makeLauncher(ClasspathContext classpath) {
+        int javaVersion = getJavaVersion().get();
+        return Utils.makeLauncher(javaVersion, classpath.classLoader(), classpath.nameEnvironments(javaVersion));
+    }
+
+    private Launcher makeModelLauncher(ClasspathContext classpath) {
+        int javaVersion = getJavaVersion().get();
+        return Utils.makeModelLauncher(javaVersion, classpath.classLoader(), classpath.nameEnvironments(javaVersion));
+    }
+
+    @Inject
+    protected abstract ObjectFactory getObjectFactory();
+
+    @TaskAction
+    public void verifyPatches() {
+        try (var lease = ClasspathService.lease(getClasspathService(), getClasspath().getFiles())) {
+            ClasspathContext classpath = lease.context();
+
+            PatchSet patches = PatchSet.scan(getPatches().get().getAsFile().toPath());
+            Map<String, List<String>> problems = new ConcurrentSkipListMap<>();
+            try (var pipeline = new SourcePipeline(getTemporaryDir().toPath(), getTimingsDirectory().isPresent() ? FileTimings.load(getTimingsDirectory().get().getAsFile().toPath()) : null, TaskProgress.create(getObjectFactory(), getLogger(), "Verifying patches"))) {
+                var files = pipeline.walk(getSource().get().getAsFile().toPath()).stream()
+                    .filter(SourceFiles.SourceFile::isJava)
+                    .filter(file -> patches.contains(file.className()))
+                    .toList();
+                Set<String> unmatched = new HashSet<>(patches.classNames());
+                files.forEach(file -> unmatched.remove(file.className()));
+                for (var className : unmatched) {
+                    problems.put(className, List.of("no source for patched class"));
+                }
+                for (var chunk : pipeline.partition(files, getMemoryBudget().getOrNull())) {
+                    pipeline.submit(chunk, SourcePipeline::read, sources -> {
+                        problems.putAll(verify(sources, patches, classpath));
+                        return List.of();
+                    });
+                }
+                pipeline.await();
+            }
+
+            Path report = getReport().get().getAsFile().toPath();
+            List<String> lines = new ArrayList<>();
+            problems.forEach((className, classProblems) -> {
+                for (var problem : classProblems) {
+                    lines.add(className.replace('/', '.') + ": " + problem);
+                }
+            });
+            try {
+                Files.createDirectories(report.getParent());
+                Files.write(report, lines);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            if (!problems.isEmpty()) {
+                String message = problems.size() + " of " + patches.classNames().size() + " patched classes have problems; see " + report;
+                if (getFailOnProblems().get()) {
+                    throw new RuntimeException(message);
+                }
+                getLogger().warn(message);
+            }
+        }
+    }
+
+    private Map<String, List<String>> verify(List<SourcePipeline.Source> chunk, PatchSet patches, ClasspathContext classpath) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (var source : chunk) {
+            sources.put(source.file().relativePath(), source.contents());
+        }
+        var types = Utils.buildModels(makeModelLauncher(classpath), sources);
+        var injector = new JavadocInjector(new SpoonClassParser(() -> makeLauncher(classpath)), patches);
+        var remainingVisitor = new SpoonRemainingVisitor();
+        Map<String, List<String>> problems = new TreeMap<>();
+        for (var source : chunk) {
+            String className = source.file().className();
+            List<String> classProblems = new ArrayList<>();
+            var visitor = new JavadocStrippingVisitor(className, source.contents());
+            var classTypes = types.get(source.file().relativePath());
+            for (var type : classTypes) {
+                visitor.visit(type);
+            }
+            var contents = visitor.build();
+            var event = PhaseEvent.start(PhaseEvent.INJECT);
+            var result = injector.injectDocs(className, className, contents, null);
+            event.finish(className, contents.length());
+            classProblems.addAll(result.getProblems());
+            if (result.getResult().isEmpty() && result.getProblems().isEmpty()) {
+                classProblems.add("injection failed");
+            }
+            ClassJavadoc patch = patches.get(className);
+            if (patch != null && !classTypes.isEmpty()) {
+                var signatures = ClassSignatures.of(classTypes.get(0));
+                ClassJavadoc remainder = remainingVisitor.visit(signatures, patch);
+                if (remainder != null) {
+                    describeMissed("", remainder, signatures, classProblems);
+                }
+            }
+            if (!classProblems.isEmpty()) {
+                problems.put(className, classProblems);
+            }
+        }
+        return problems;
+    }
+
+    private static void describeMissed(String prefix, ClassJavadoc missed, ClassSignatures signatures, List<String> problems) {
+        if (missed.methods() != null) {
+            missed.methods().keySet().stream().sorted().forEach(method -> problems.add("no method " + prefix + method));
+        }
+        if (missed.fields() != null) {
+            missed.fields().keySet().stream().sorted().forEach(field -> problems.add("no field " + prefix + field));
+        }
+        if (missed.innerClasses() != null) {
+            missed.innerClasses().entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
+                var nested = signatures.nestedTypes().get(entry.getKey());
+                if (nested == null) {
+                    problems.add("no class " + prefix + entry.getKey());
+                } else {
+                    describeMissed(prefix + entry.getKey() + "$", entry.getValue(), nested, problems);
+                }
+            });
+        }
+    }
+}
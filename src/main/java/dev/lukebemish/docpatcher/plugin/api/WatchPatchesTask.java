@@ -0,0 +1,69 @@
+package dev.lukebemish.docpatcher.plugin.api;
+
+import dev.lukebemish.docpatcher.plugin.impl.ClasspathContext;
+import dev.lukebemish.docpatcher.plugin.impl.ClasspathService;
+import dev.lukebemish.docpatcher.plugin.impl.PatchWatcher;
+import dev.lukebemish.docpatcher.plugin.impl.Utils;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@UntrackedTask(because = "Watches the modified sources until the build is cancelled")
+public abstract class WatchPatchesTask extends DefaultTask {
+    @InputFiles
+    public abstract DirectoryProperty getClean();
+    @InputFiles
+    public abstract DirectoryProperty getModified();
+    @Input
+    public abstract Property<Integer> getJavaVersion();
+    @Internal
+    public abstract DirectoryProperty getOutputDirectory();
+    @InputFiles
+    public abstract ConfigurableFileCollection getClasspath();
+    @Internal
+    @Optional
+    public abstract Property<ClasspathService> getClasspathService();
+
+    @TaskAction
+    public void watchPatches() {
+        try (var lease = ClasspathService.lease(getClasspathService(), getClasspath().getFiles())) {
+            ClasspathContext classpath = lease.context();
+
+            int javaVersion = getJavaVersion().get();
+            try (var watcher = new PatchWatcher(
+                getClean().get().getAsFile().toPath(),
+                getModified().get().getAsFile().toPath(),
+                getOutputDirectory().get().getAsFile().toPath(),
+                () -> Utils.makeModelLauncher(javaVersion, classpath.classLoader(), classpath.nameEnvironments(javaVersion)),
+                classpath.typeIndex()
+            )) {
+                getLogger().lifecycle("Watching {} for changes", getModified().get().getAsFile());
+                watcher.run(new PatchWatcher.Listener() {
+                    @Override
+                    public void regenerated(String relativePath, boolean hasPatch, long nanos) {
+                        getLogger().lifecycle("{} patch for {} in {} ms", hasPatch ? "Regenerated" : "Removed", relativePath, TimeUnit.NANOSECONDS.toMillis(nanos));
+                    }
+
+                    @Override
+                    public void failed(String relativePath, Exception exception) {
+                        getLogger().error("Failed to regenerate patch for {}", relativePath, exception);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
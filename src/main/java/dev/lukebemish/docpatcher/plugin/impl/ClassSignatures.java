@@ -0,0 +1,30 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import net.neoforged.javadoctor.injector.spoon.JVMSignatureBuilder;
+import spoon.reflect.declaration.*;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The members of a class as patches address them: methods and constructors by name and JVM descriptor, fields by name,
+ * and named nested types by simple name. Holds no reference to the model it was read from.
+ */
+public record ClassSignatures(Set<String> methods, Set<String> fields, Map<String, ClassSignatures> nestedTypes) {
+    public static ClassSignatures of(CtType<?> type) {
+        Set<String> methods = Stream.concat(type.getMethods().stream(), (type instanceof CtClass<?> ctClass) ? ctClass.getConstructors().stream() : Stream.<CtExecutable<?>>of()).map(exec -> {
+            final boolean isCtor = exec instanceof CtConstructor<?>;
+            return (isCtor ? "<init>" : exec.getSimpleName()) + JVMSignatureBuilder.getJvmMethodSignature(exec);
+        }).collect(Collectors.toUnmodifiableSet());
+
+        Set<String> fields = type.getFields().stream().map(CtField::getSimpleName).collect(Collectors.toUnmodifiableSet());
+
+        Map<String, ClassSignatures> nestedTypes = type.getNestedTypes().stream()
+            .filter(t -> !t.isAnonymous() && !t.isLocalType())
+            .collect(Collectors.toUnmodifiableMap(CtType::getSimpleName, ClassSignatures::of));
+
+        return new ClassSignatures(methods, fields, nestedTypes);
+    }
+}
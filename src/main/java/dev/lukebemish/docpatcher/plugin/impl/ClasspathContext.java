@@ -0,0 +1,82 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything derived from a single classpath while processing sources, created on first use so that it can be shared
+ * by every task, and every thread, that parses against the same classpath.
+ */
+public final class ClasspathContext implements AutoCloseable {
+    private final List<File> files;
+    private volatile @Nullable ClassLoader classLoader;
+    private volatile @Nullable ClasspathTypeIndex typeIndex;
+    private final Map<Integer, NameEnvironmentPool> nameEnvironments = new ConcurrentHashMap<>();
+
+    public ClasspathContext(List<File> files) {
+        this.files = List.copyOf(files);
+    }
+
+    public List<File> files() {
+        return files;
+    }
+
+    public ClassLoader classLoader() {
+        var loader = classLoader;
+        if (loader == null) {
+            synchronized (this) {
+                loader = classLoader;
+                if (loader == null) {
+                    loader = Utils.makeClassLoader(files.stream().map(File::getPath));
+                    classLoader = loader;
+                }
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * The names of the types on this classpath, for resolving javadoc link targets without loading classes.
+     */
+    public ClasspathTypeIndex typeIndex() {
+        var index = typeIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = typeIndex;
+                if (index == null) {
+                    index = new ClasspathTypeIndex(classLoader());
+                    typeIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The warm JDT name environments for this classpath at the given compliance level.
+     */
+    public NameEnvironmentPool nameEnvironments(int javaVersion) {
+        return nameEnvironments.computeIfAbsent(javaVersion, v -> new NameEnvironmentPool());
+    }
+
+    @Override
+    public synchronized void close() {
+        nameEnvironments.values().forEach(NameEnvironmentPool::close);
+        nameEnvironments.clear();
+        if (classLoader instanceof Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        classLoader = null;
+        typeIndex = null;
+    }
+}
@@ -0,0 +1,54 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares classpath contexts between all DocPatcher tasks in a build, keyed by the resolved classpath files, so that
+ * diff blocks and tasks with the same classpath index it once.
+ */
+public abstract class ClasspathService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    public static final String NAME = "docPatcherClasspath";
+
+    private final Map<List<File>, ClasspathContext> contexts = new ConcurrentHashMap<>();
+
+    public ClasspathContext context(Collection<File> classpath) {
+        return contexts.computeIfAbsent(List.copyOf(classpath), ClasspathContext::new);
+    }
+
+    /**
+     * A task's use of a classpath context. Closing it closes the context only if it was made for the task alone; a
+     * context from the service is shared with other tasks, and closed with the service.
+     */
+    public record Lease(ClasspathContext context, boolean owned) implements AutoCloseable {
+        @Override
+        public void close() {
+            if (owned) {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * Leases the context for a classpath from the service, if there is one, or otherwise makes a context of its own.
+     */
+    public static Lease lease(Provider<ClasspathService> service, Collection<File> classpath) {
+        if (service.isPresent()) {
+            return new Lease(service.get().context(classpath), false);
+        }
+        return new Lease(new ClasspathContext(List.copyOf(classpath)), true);
+    }
+
+    @Override
+    public void close() {
+        contexts.values().forEach(ClasspathContext::close);
+        contexts.clear();
+    }
+}
@@ -0,0 +1,77 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Names of the types on a classpath, read from class file headers as they are asked for. Class files are only located
+ * as resources, so nothing is loaded or defined, and lookups that miss are remembered as well as those that hit.
+ */
+public final class ClasspathTypeIndex {
+    /**
+     * A type as far as javadoc qualification cares about it. Qualified names of nested types use {@code $}, as they do
+     * in a Spoon model.
+     */
+    public record TypeName(String qualifiedName, String simpleName, String packageName) {}
+
+    private final ClassLoader resources;
+    private final Map<String, Optional<TypeName>> types = new ConcurrentHashMap<>();
+
+    public ClasspathTypeIndex(ClassLoader resources) {
+        this.resources = resources;
+    }
+
+    /**
+     * Finds a type by its binary name, as {@link Class#forName(String)} would.
+     */
+    public Optional<TypeName> find(String binaryName) {
+        return types.computeIfAbsent(binaryName, this::read);
+    }
+
+    private Optional<TypeName> read(String binaryName) {
+        String internalName = binaryName.replace('.', '/');
+        try (InputStream stream = resources.getResourceAsStream(internalName + ".class")) {
+            if (stream == null) {
+                return Optional.empty();
+            }
+            var reader = new ClassReader(stream);
+            if (!reader.getClassName().equals(internalName)) {
+                return Optional.empty();
+            }
+            var visitor = new HeaderVisitor(internalName);
+            reader.accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            int packageEnd = internalName.lastIndexOf('/');
+            String packageName = packageEnd == -1 ? "" : internalName.substring(0, packageEnd).replace('/', '.');
+            String simpleName = visitor.simpleName != null ? visitor.simpleName : internalName.substring(packageEnd + 1);
+            return Optional.of(new TypeName(binaryName.intern(), simpleName.intern(), packageName.intern()));
+        } catch (IOException | IllegalArgumentException e) {
+            // Unreadable or unsupported class files are treated as missing, as a failed class load would be
+            return Optional.empty();
+        }
+    }
+
+    private static final class HeaderVisitor extends ClassVisitor {
+        private final String internalName;
+        private @Nullable String simpleName;
+
+        private HeaderVisitor(String internalName) {
+            super(Opcodes.ASM9);
+            this.internalName = internalName;
+        }
+
+        @Override
+        public void visitInnerClass(String name, @Nullable String outerName, @Nullable String innerName, int access) {
+            if (name.equals(internalName)) {
+                simpleName = innerName == null ? "" : innerName;
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Projections of clean sources kept on disk between runs, so that a clean source is parsed once rather than on every
+ * run. Entries are keyed by a hash of the source's contents together with everything else the projection depends on:
+ * the code of the plugin that made it, the Java version and classpath it was parsed with, and any settings that went
+ * into it. Entries that cannot be read are treated as missing. After a full run, {@link #prune()} drops the entries of sources that are no longer there.
+ */
+public final class CleanCache {
+    /**
+     * Changed whenever what is stored, or how, changes, so that entries from older versions are never read.
+     */
+    private static final int FORMAT = 1;
+    /**
+     * Identifies the plugin's own code, so that entries written by another build of it are never read even where
+     * {@link #FORMAT} was not changed.
+     */
+    private static final String IMPLEMENTATION = implementation();
+
+    private final Path root;
+    private final String context;
+    private final Set<Path> used = ConcurrentHashMap.newKeySet();
+
+    public CleanCache(Path root, int javaVersion, Collection<File> classpath) {
+        this.root = root;
+        this.context = FORMAT + "\n" + IMPLEMENTATION + "\n" + javaVersion + "\n" + fingerprint(classpath);
+    }
+
+    public @Nullable CleanType getType(String contents) {
+        return read("type", contents, json -> {
+            var object = json.getAsJsonObject();
+            var imports = readImports(object.getAsJsonArray("imports"));
+            return readType(object.getAsJsonObject("type"), imports);
+        });
+    }
+
+    public void putType(String contents, CleanType type) {
+        var object = new JsonObject();
+        object.add("imports", writeImports(type.imports()));
+        object.add("type", writeType(type));
+        write("type", contents, object);
+    }
+
+    /**
+     * Finds a source projection; the settings are whatever affected its original docs, as a string.
+     */
+    public @Nullable CleanSource getSource(String settings, String contents) {
+        return read("source\n" + settings, contents, json -> {
+            var object = json.getAsJsonObject();
+            var spans = object.getAsJsonArray("javadocs");
+            List<CleanSource.Span> javadocs = new ArrayList<>(spans.size() / 2);
+            for (int i = 0; i + 1 < spans.size(); i += 2) {
+                javadocs.add(new CleanSource.Span(spans.get(i).getAsInt(), spans.get(i + 1).getAsInt()));
+            }
+            var signatures = object.get("signatures");
+            var original = object.get("original");
+            return new CleanSource(
+                List.copyOf(javadocs),
+                object.get("typeCount").getAsInt(),
+                signatures == null || signatures.isJsonNull() ? null : readSignatures(signatures.getAsJsonObject()),
+                original == null || original.isJsonNull() ? null : Data.deserializeClassJavadoc(original)
+            );
+        });
+    }
+
+    public void putSource(String settings, String contents, CleanSource source) {
+        var object = new JsonObject();
+        var spans = new JsonArray(source.javadocs().size() * 2);
+        for (var span : source.javadocs()) {
+            spans.add(span.start());
+            spans.add(span.end());
+        }
+        object.add("javadocs", spans);
+        object.addProperty("typeCount", source.typeCount());
+        if (source.signatures() != null) {
+            object.add("signatures", writeSignatures(source.signatures()));
+        }
+        if (source.original() != null) {
+            object.add("original", Data.serialize(source.original()));
+        }
+        write("source\n" + settings, contents, object);
+    }
+
+    /**
+     * Reads an entry, treating one that cannot be read or does not have the expected structure as missing, and
+     * deleting it so that it is replaced.
+     */
+    private <T> @Nullable T read(String kind, String contents, Function<JsonElement, T> reader) {
+        Path path = path(kind, contents);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        used.add(path);
+        try {
+            return reader.apply(JsonParser.parseString(Files.readString(path)));
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // Replaced by the next write anyway
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Deletes every entry that this run neither read nor wrote, along with any directories left empty. Only
+     * meaningful after a run over the whole clean source, as entries for the sources a run skipped would go too.
+     */
+    public void prune() {
+        Utils.deleteFiles(root, path -> !used.contains(path));
+    }
+
+    private void write(String kind, String contents, JsonElement json) {
+        Path path = path(kind, contents);
+        used.add(path);
+        try {
+            Files.createDirectories(path.getParent());
+            // Written aside and moved into place, so that a concurrent reader never sees half an entry
+            Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            Files.writeString(temporary, json.toString());
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Path path(String kind, String contents) {
+        var digest = sha256();
+        digest.update((context + "\n" + kind + "\n").getBytes(StandardCharsets.UTF_8));
+        digest.update(contents.getBytes(StandardCharsets.UTF_8));
+        String hash = HexFormat.of().formatHex(digest.digest());
+        return root.resolve(hash.substring(0, 2)).resolve(hash + ".json");
+    }
+
+    /**
+     * Identifies a classpath by the path, size and modification time of each file on it, in order, since link
+     * qualification resolves names against it.
+     */
+    private static String fingerprint(Collection<File> classpath) {
+        var digest = sha256();
+        for (var file : classpath) {
+            List<Path> files;
+            if (file.isDirectory()) {
+                try (var stream = Files.walk(file.toPath())) {
+                    files = stream.filter(Files::isRegularFile).sorted().toList();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                files = List.of(file.toPath());
+            }
+            for (var path : files) {
+                var entry = path.toAbsolutePath() + "\n" + path.toFile().length() + "\n" + path.toFile().lastModified() + "\n";
+                digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Fingerprints the jar or directory this class was loaded from, or failing that, uses the version in its manifest.
+     */
+    private static String implementation() {
+        var codeSource = CleanCache.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null) {
+            try {
+                return fingerprint(List.of(new File(codeSource.getLocation().toURI())));
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // Not a local file, so fall back to the version
+            }
+        }
+        return String.valueOf(CleanCache.class.getPackage().getImplementationVersion());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static JsonArray writeImports(JavadocImports imports) {
+        var array = new JsonArray(imports.entries().size());
+        for (var entry : imports.entries()) {
+            var pair = new JsonArray(2);
+            pair.add(entry.kind().name());
+            pair.add(entry.name());
+            array.add(pair);
+        }
+        return array;
+    }
+
+    private static JavadocImports readImports(JsonArray array) {
+        List<JavadocImports.Entry> entries = new ArrayList<>(array.size());
+        for (var element : array) {
+            var pair = element.getAsJsonArray();
+            entries.add(new JavadocImports.Entry(JavadocImports.Kind.valueOf(pair.get(0).getAsString()), pair.get(1).getAsString()));
+        }
+        return new JavadocImports(List.copyOf(entries));
+    }
+
+    private static JsonObject writeType(CleanType type) {
+        var object = new JsonObject();
+        object.add("javadoc", writeJavadoc(type.javadoc()));
+        object.add("methods", writeMembers(type.methods()));
+        object.add("fields", writeMembers(type.fields()));
+        var nested = new JsonObject();
+        type.nestedTypes().forEach((name, nestedType) -> nested.add(name, writeType(nestedType)));
+        object.add("nestedTypes", nested);
+        return object;
+    }
+
+    private static CleanType readType(JsonObject object, JavadocImports imports) {
+        return new CleanType(
+            readJavadoc(object.get("javadoc")),
+            readMembers(object.getAsJsonObject("methods")),
+            readMembers(object.getAsJsonObject("fields")),
+            readMap(object.getAsJsonObject("nestedTypes"), it -> readType(it.getAsJsonObject(), imports)),
+            imports
+        );
+    }
+
+    private static JsonObject writeMembers(Map<String, CleanType.Member> members) {
+        var object = new JsonObject();
+        members.forEach((desc, member) -> object.add(desc, writeJavadoc(member.javadoc())));
+        return object;
+    }
+
+    private static Map<String, CleanType.Member> readMembers(JsonObject object) {
+        return readMap(object, it -> new CleanType.Member(readJavadoc(it)));
+    }
+
+    private static JsonElement writeJavadoc(@Nullable ParsedJavadoc javadoc) {
+        if (javadoc == null) {
+            return JsonNull.INSTANCE;
+        }
+        var object = new JsonObject();
+        object.addProperty("content", javadoc.content());
+        var tags = new JsonObject();
+        javadoc.tags().forEach((name, values) -> {
+            var array = new JsonArray(values.size());
+            values.forEach(array::add);
+            tags.add(name, array);
+        });
+        object.add("tags", tags);
+        return object;
+    }
+
+    private static @Nullable ParsedJavadoc readJavadoc(JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        var object = element.getAsJsonObject();
+        Map<String, List<String>> tags = new LinkedHashMap<>();
+        for (var entry : object.getAsJsonObject("tags").entrySet()) {
+            List<String> values = new ArrayList<>();
+            for (var value : entry.getValue().getAsJsonArray()) {
+                values.add(value.getAsString());
+            }
+            tags.put(entry.getKey(), List.copyOf(values));
+        }
+        return new ParsedJavadoc(object.get("content").getAsString(), Collections.unmodifiableMap(tags));
+    }
+
+    private static JsonObject writeSignatures(ClassSignatures signatures) {
+        var object = new JsonObject();
+        var methods = new JsonArray(signatures.methods().size());
+        signatures.methods().stream().sorted().forEach(methods::add);
+        object.add("methods", methods);
+        var fields = new JsonArray(signatures.fields().size());
+        signatures.fields().stream().sorted().forEach(fields::add);
+        object.add("fields", fields);
+        var nested = new JsonObject();
+        signatures.nestedTypes().forEach((name, nestedSignatures) -> nested.add(name, writeSignatures(nestedSignatures)));
+        object.add("nestedTypes", nested);
+        return object;
+    }
+
+    private static ClassSignatures readSignatures(JsonObject object) {
+        return new ClassSignatures(
+            readStrings(object.getAsJsonArray("methods")),
+            readStrings(object.getAsJsonArray("fields")),
+            readMap(object.getAsJsonObject("nestedTypes"), it -> readSignatures(it.getAsJsonObject()))
+        );
+    }
+
+    private static Set<String> readStrings(JsonArray array) {
+        Set<String> strings = new HashSet<>(array.size());
+        for (var element : array) {
+            strings.add(element.getAsString());
+        }
+        return Collections.unmodifiableSet(strings);
+    }
+
+    private static <T> Map<String, T> readMap(JsonObject object, Function<JsonElement, T> reader) {
+        return object.entrySet().stream().collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> reader.apply(entry.getValue())));
+    }
+}
@@ -0,0 +1,46 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import net.neoforged.javadoctor.spec.ClassJavadoc;
+import org.jetbrains.annotations.Nullable;
+import spoon.reflect.code.CtJavaDoc;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * What applying patches needs of a clean source besides its text: where its javadocs are, so that they can be cut out,
+ * the members of its type, for finding missed patches, and its original docs, when those are kept. Holds no reference
+ * to the model it was read from, so it can be cached on disk in place of the model.
+ */
+public record CleanSource(List<Span> javadocs, int typeCount, @Nullable ClassSignatures signatures, @Nullable ClassJavadoc original) {
+    /**
+     * The source positions of a javadoc, inclusive, as Spoon reports them.
+     */
+    public record Span(int start, int end) {}
+
+    /**
+     * Reads the projection from the top-level types declared by a source. Original docs are only read if a function
+     * to read them is given, and only when the source declares exactly one type.
+     */
+    public static CleanSource of(List<CtType<?>> types, @Nullable Function<CtType<?>, @Nullable ClassJavadoc> originals) {
+        List<Span> javadocs = new ArrayList<>();
+        for (var type : types) {
+            collect(type, javadocs);
+        }
+        ClassSignatures signatures = types.isEmpty() ? null : ClassSignatures.of(types.get(0));
+        ClassJavadoc original = originals != null && types.size() == 1 ? originals.apply(types.get(0)) : null;
+        return new CleanSource(List.copyOf(javadocs), types.size(), signatures, original);
+    }
+
+    private static void collect(CtElement element, List<Span> javadocs) {
+        if (element instanceof CtJavaDoc && element.getPosition().isValidPosition()) {
+            javadocs.add(new Span(element.getPosition().getSourceStart(), element.getPosition().getSourceEnd()));
+        }
+        for (var child : element.getDirectChildren()) {
+            collect(child, javadocs);
+        }
+    }
+}
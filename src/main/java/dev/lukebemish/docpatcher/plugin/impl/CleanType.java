@@ -0,0 +1,14 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * What comparing against a clean class needs of it: its javadocs, already parsed and expanded against the clean source,
+ * the members patches address, keyed as in {@link ClassSignatures}, and the imports of the clean source. Holds no
+ * reference to the model it was read from, so it can be kept, or cached on disk, in place of the model.
+ */
+public record CleanType(@Nullable ParsedJavadoc javadoc, Map<String, Member> methods, Map<String, Member> fields, Map<String, CleanType> nestedTypes, JavadocImports imports) {
+    public record Member(@Nullable ParsedJavadoc javadoc) {}
+}
@@ -1,5 +1,9 @@
 package dev.lukebemish.docpatcher.plugin.impl;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -11,6 +15,12 @@
 import java.util.*;
 
 public class Data {
+    /**
+     * Tag names, member descriptors and common doc lines repeat across thousands of entries in a patch set; loaded
+     * patches share one copy of each. Weak, so strings from patch sets that are no longer loaded can still be freed.
+     */
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
     private static JsonElement splitString(@Nullable String string) {
         if (string == null) {
             return new JsonPrimitive("");
@@ -31,9 +41,9 @@ private static String processString(JsonElement element) {
             for (JsonElement e : element.getAsJsonArray()) {
                 builder.append(e.getAsString()).append("\n");
             }
-            return builder.substring(0, builder.length() - 1);
+            return STRINGS.intern(builder.substring(0, builder.length() - 1));
         }
-        return element.getAsString();
+        return STRINGS.intern(element.getAsString());
     }
 
     public static JsonElement serialize(JavadocEntry entry) {
@@ -80,19 +90,23 @@ public static JavadocEntry deserializeJavadocEntry(JsonElement element) {
         } else {
             doc = processString(docElement);
         }
-        Map<String, List<String>> tags = new HashMap<>();
+        Map<String, List<String>> tags;
         String[] parameters = null;
         String[] typeParameters = null;
         JsonObject tagsElement = object.getAsJsonObject("tags");
         if (tagsElement != null) {
+            var tagsBuilder = ImmutableMap.<String, List<String>>builderWithExpectedSize(tagsElement.size());
             tagsElement.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
                 JsonArray value = entry.getValue().getAsJsonArray();
-                List<String> values = new ArrayList<>();
+                var values = ImmutableList.<String>builderWithExpectedSize(value.size());
                 for (JsonElement e : value.getAsJsonArray()) {
                     values.add(processString(e));
                 }
-                tags.put(entry.getKey(), values);
+                tagsBuilder.put(STRINGS.intern(entry.getKey()), values.build());
             });
+            tags = tagsBuilder.build();
+        } else {
+            tags = ImmutableMap.of();
         }
         JsonArray parametersElement = object.getAsJsonArray("parameters");
         if (parametersElement != null) {
@@ -144,20 +158,23 @@ public static ClassJavadoc deserializeClassJavadoc(JsonElement node) {
         Map<String, JavadocEntry> fieldsMap;
         Map<String, ClassJavadoc> innerClassesMap;
         if (methods != null) {
-            methodsMap = new HashMap<>();
-            methods.entrySet().forEach(entry -> methodsMap.put(entry.getKey(), deserializeJavadocEntry(entry.getValue())));
+            var builder = ImmutableMap.<String, JavadocEntry>builderWithExpectedSize(methods.size());
+            methods.entrySet().forEach(entry -> builder.put(STRINGS.intern(entry.getKey()), deserializeJavadocEntry(entry.getValue())));
+            methodsMap = builder.build();
         } else {
             methodsMap = null;
         }
         if (fields != null) {
-            fieldsMap = new HashMap<>();
-            fields.entrySet().forEach(entry -> fieldsMap.put(entry.getKey(), deserializeJavadocEntry(entry.getValue())));
+            var builder = ImmutableMap.<String, JavadocEntry>builderWithExpectedSize(fields.size());
+            fields.entrySet().forEach(entry -> builder.put(STRINGS.intern(entry.getKey()), deserializeJavadocEntry(entry.getValue())));
+            fieldsMap = builder.build();
         } else {
             fieldsMap = null;
         }
         if (innerClasses != null) {
-            innerClassesMap = new HashMap<>();
-            innerClasses.entrySet().forEach(entry -> innerClassesMap.put(entry.getKey(), deserializeClassJavadoc(entry.getValue())));
+            var builder = ImmutableMap.<String, ClassJavadoc>builderWithExpectedSize(innerClasses.size());
+            innerClasses.entrySet().forEach(entry -> builder.put(STRINGS.intern(entry.getKey()), deserializeClassJavadoc(entry.getValue())));
+            innerClassesMap = builder.build();
         } else {
             innerClassesMap = null;
         }
@@ -1,13 +1,70 @@
 package dev.lukebemish.docpatcher.plugin.impl;
 
+import dev.lukebemish.docpatcher.plugin.api.ApplyPatchesTask;
 import dev.lukebemish.docpatcher.plugin.api.DocPatcherExtension;
+import dev.lukebemish.docpatcher.plugin.api.MakePatchesTask;
+import dev.lukebemish.docpatcher.plugin.api.MissedPatchesTask;
+import dev.lukebemish.docpatcher.plugin.api.VerifyPatchesTask;
+import dev.lukebemish.docpatcher.plugin.api.WatchPatchesTask;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.plugins.JavaBasePlugin;
+import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.jvm.toolchain.JavaLanguageVersion;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.function.Function;
+
 public class DocPatcherPlugin implements Plugin<Project> {
     @Override
     public void apply(@NotNull Project project) {
         project.getExtensions().create("docPatcher", DocPatcherExtension.class, project);
+
+        project.getPlugins().withType(JavaBasePlugin.class, plugin -> {
+            var javaVersion = project.getExtensions().getByType(JavaPluginExtension.class).getToolchain().getLanguageVersion().map(JavaLanguageVersion::asInt);
+            project.getTasks().withType(ApplyPatchesTask.class).configureEach(task -> task.getJavaVersion().convention(javaVersion));
+            project.getTasks().withType(MakePatchesTask.class).configureEach(task -> task.getJavaVersion().convention(javaVersion));
+            project.getTasks().withType(MissedPatchesTask.class).configureEach(task -> task.getJavaVersion().convention(javaVersion));
+            project.getTasks().withType(WatchPatchesTask.class).configureEach(task -> task.getJavaVersion().convention(javaVersion));
+            project.getTasks().withType(VerifyPatchesTask.class).configureEach(task -> task.getJavaVersion().convention(javaVersion));
+        });
+
+        // Each task prunes its cache to what it last used, so tasks cannot share one
+        project.getTasks().withType(ApplyPatchesTask.class).configureEach(task -> task.getCleanCache().convention(project.getLayout().getBuildDirectory().dir("docPatcher/cleanCache/"+task.getName())));
+        project.getTasks().withType(MakePatchesTask.class).configureEach(task -> task.getCleanCache().convention(project.getLayout().getBuildDirectory().dir("docPatcher/cleanCache/"+task.getName())));
+
+        // Kept out of the tasks' temporary directories, which Gradle may clear between runs
+        timingsConvention(project, ApplyPatchesTask.class, ApplyPatchesTask::getTimingsDirectory);
+        timingsConvention(project, MakePatchesTask.class, MakePatchesTask::getTimingsDirectory);
+        timingsConvention(project, MissedPatchesTask.class, MissedPatchesTask::getTimingsDirectory);
+        timingsConvention(project, VerifyPatchesTask.class, VerifyPatchesTask::getTimingsDirectory);
+
+        var classpathService = project.getGradle().getSharedServices().registerIfAbsent(ClasspathService.NAME, ClasspathService.class, spec -> {});
+        project.getTasks().withType(ApplyPatchesTask.class).configureEach(task -> {
+            task.getClasspathService().set(classpathService);
+            task.usesService(classpathService);
+        });
+        project.getTasks().withType(MakePatchesTask.class).configureEach(task -> {
+            task.getClasspathService().set(classpathService);
+            task.usesService(classpathService);
+        });
+        project.getTasks().withType(MissedPatchesTask.class).configureEach(task -> {
+            task.getClasspathService().set(classpathService);
+            task.usesService(classpathService);
+        });
+        project.getTasks().withType(WatchPatchesTask.class).configureEach(task -> {
+            task.getClasspathService().set(classpathService);
+            task.usesService(classpathService);
+        });
+        project.getTasks().withType(VerifyPatchesTask.class).configureEach(task -> {
+            task.getClasspathService().set(classpathService);
+            task.usesService(classpathService);
+        });
+    }
+
+    private static <T extends Task> void timingsConvention(Project project, Class<T> type, Function<T, DirectoryProperty> timingsDirectory) {
+        project.getTasks().withType(type).configureEach(task -> timingsDirectory.apply(task).convention(project.getLayout().getBuildDirectory().dir("docPatcher/timings/"+task.getName())));
     }
 }
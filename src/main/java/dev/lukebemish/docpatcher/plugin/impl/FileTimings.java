@@ -0,0 +1,119 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How long each file took to process in earlier runs, kept so that the slowest files can be started first. Files
+ * without a recorded time are estimated from their size, at the average rate of the files that have one.
+ */
+public final class FileTimings {
+    private static final String FILE_NAME = "timings.txt";
+
+    private record Timing(long nanos, long size) {}
+
+    private final Path file;
+    private final Map<String, Timing> previous;
+    private final Map<String, Timing> current = new ConcurrentHashMap<>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final double nanosPerByte;
+
+    private FileTimings(Path file, Map<String, Timing> previous) {
+        this.file = file;
+        this.previous = previous;
+        long nanos = 0;
+        long size = 0;
+        for (var timing : previous.values()) {
+            nanos += timing.nanos();
+            size += timing.size();
+        }
+        this.nanosPerByte = size == 0 ? 1 : (double) nanos / size;
+    }
+
+    /**
+     * Reads the timings stored in the given directory, which has to outlive the task for them to be of use. A missing
+     * or unreadable file gives no timings, as the worst a stale estimate can do is schedule files in a worse order.
+     */
+    public static FileTimings load(Path directory) {
+        Path file = directory.resolve(FILE_NAME);
+        Map<String, Timing> previous = new HashMap<>();
+        if (Files.exists(file)) {
+            try (var lines = Files.lines(file)) {
+                for (var line : (Iterable<String>) lines::iterator) {
+                    var parts = line.split("\t", 3);
+                    if (parts.length == 3) {
+                        previous.put(parts[2], new Timing(Long.parseLong(parts[0]), Long.parseLong(parts[1])));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                previous.clear();
+            }
+        }
+        return new FileTimings(file, previous);
+    }
+
+    public long estimate(SourceFiles.SourceFile file) {
+        var timing = previous.get(file.relativePath());
+        if (timing != null) {
+            // Scaled to the current size, in case the file has been edited since
+            return timing.size() == 0 ? timing.nanos() : (long) ((double) timing.nanos() * file.size() / timing.size());
+        }
+        return (long) (file.size() * nanosPerByte);
+    }
+
+    /**
+     * Orders files from the longest estimated to the shortest, so that the last files to finish are short ones.
+     */
+    public List<SourceFiles.SourceFile> longestFirst(List<SourceFiles.SourceFile> files) {
+        List<SourceFiles.SourceFile> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparingLong(this::estimate).reversed());
+        return sorted;
+    }
+
+    /**
+     * Records the time taken to process a chunk, shared between its files by size.
+     */
+    public void record(List<SourceFiles.SourceFile> chunk, long nanos) {
+        long size = 0;
+        for (var file : chunk) {
+            size += file.size();
+        }
+        for (var file : chunk) {
+            long share = size == 0 ? nanos / chunk.size() : (long) ((double) nanos * file.size() / size);
+            current.put(file.relativePath(), new Timing(share, file.size()));
+        }
+    }
+
+    /**
+     * Notes the files that exist in this run, whether or not they are processed; timings of any others are dropped
+     * when saving.
+     */
+    public void seen(List<SourceFiles.SourceFile> files) {
+        for (var file : files) {
+            seen.add(file.relativePath());
+        }
+    }
+
+    /**
+     * Writes back the timings of this run, keeping those of files that were seen but not processed.
+     */
+    public void save() throws IOException {
+        Map<String, Timing> merged = new HashMap<>(previous);
+        merged.keySet().retainAll(seen);
+        merged.putAll(current);
+        List<String> lines = new ArrayList<>(merged.size());
+        merged.entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .forEach(entry -> lines.add(entry.getValue().nanos() + "\t" + entry.getValue().size() + "\t" + entry.getKey()));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.write(file, lines);
+    }
+}
@@ -0,0 +1,48 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class FileTransfer {
+    private FileTransfer() {}
+
+    /**
+     * Places a copy of a file at the target, leaving the target alone if it already holds the same contents. When
+     * linking is requested, a hardlink is tried first; otherwise, or if that fails, the bytes are transferred between
+     * channels without passing through the heap. A target linked to the source counts as the same contents only when
+     * linking; otherwise it is replaced by a copy, so that editing it leaves the source alone.
+     */
+    public static void transfer(Path source, Path target, boolean link) throws IOException {
+        if (Files.exists(target)) {
+            if (Files.isSameFile(source, target)) {
+                if (link) {
+                    return;
+                }
+            } else if (Files.size(source) == Files.size(target) && Files.mismatch(source, target) == -1) {
+                return;
+            }
+            Files.delete(target);
+        }
+        Files.createDirectories(target.getParent());
+        if (link) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // Links are not supported here or across these file stores; fall back to copying
+            }
+        }
+        try (var in = FileChannel.open(source, StandardOpenOption.READ);
+             var out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+}
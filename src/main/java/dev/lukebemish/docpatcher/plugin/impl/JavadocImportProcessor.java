@@ -1,5 +1,6 @@
 package dev.lukebemish.docpatcher.plugin.impl;
 
+import dev.lukebemish.docpatcher.plugin.impl.ClasspathTypeIndex.TypeName;
 import org.jetbrains.annotations.Nullable;
 import spoon.experimental.CtUnresolvedImport;
 import spoon.reflect.declaration.*;
@@ -8,7 +9,6 @@
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -18,13 +18,13 @@ public class JavadocImportProcessor {
     private static final Pattern PATTERN = Pattern.compile("@(?<tag>link|linkplain|see|value)(?<space>\\s+)" + MAIN);
     private static final Pattern MAIN_PATTERN = Pattern.compile("^"+MAIN);
 
-    private final ClassLoader classLoader;
+    private final ClasspathTypeIndex typeIndex;
 
-    public JavadocImportProcessor(ClassLoader classLoader) {
-        this.classLoader = classLoader;
+    public JavadocImportProcessor(ClasspathTypeIndex typeIndex) {
+        this.typeIndex = typeIndex;
     }
 
-    private String expandBody(CtElement element, final String owner, final String memberName, final String descFull, String desc, @Nullable CtElement original) {
+    private String expandBody(CtElement element, final String owner, final String memberName, final String descFull, String desc, @Nullable JavadocImports original) {
         final StringBuilder reference = new StringBuilder();
         final String owningClass = getQualifiedClass(element, owner, original);
         final boolean hasDesc = descFull != null && !descFull.isBlank();
@@ -73,7 +73,7 @@ private String prettifyCombinedBody(String originalName) {
         return originalName.replace('#', '.');
     }
 
-    public String processBlockTag(String tag, CtElement element, String doc, @Nullable CtElement original) {
+    public String processBlockTag(String tag, CtElement element, String doc, @Nullable JavadocImports original) {
         if ("see".equals(tag)) {
             return MAIN_PATTERN.matcher(doc).replaceAll(result -> {
                 final StringBuilder reference = new StringBuilder();
@@ -95,8 +95,9 @@ public String processBlockTag(String tag, CtElement element, String doc, @Nullab
         return doc;
     }
 
-    public String expand(CtElement element, String doc, @Nullable CtElement original) {
-        return PATTERN.matcher(doc).replaceAll(result -> {
+    public String expand(CtElement element, String doc, @Nullable JavadocImports original) {
+        var event = PhaseEvent.start(PhaseEvent.EXPAND_LINKS);
+        var expanded = PATTERN.matcher(doc).replaceAll(result -> {
             final StringBuilder reference = new StringBuilder()
                 .append('@').append(result.group(1)).append(result.group(2));
             final String owner = result.group(3);
@@ -113,9 +114,14 @@ public String expand(CtElement element, String doc, @Nullable CtElement original
             }
             return reference.toString();
         });
+        event.finish(() -> {
+            CtType<?> type = element instanceof CtType ? (CtType<?>) element : element.getParent(CtType.class);
+            return type == null ? null : type.getQualifiedName();
+        }, doc.length());
+        return expanded;
     }
 
-    private String getQualifiedClass(CtElement element, String name, @Nullable CtElement original) {
+    private String getQualifiedClass(CtElement element, String name, @Nullable JavadocImports original) {
         if (name == null || name.isBlank()) {
             return null;
         }
@@ -126,7 +132,7 @@ private String getQualifiedClass(CtElement element, String name, @Nullable CtEle
         return name;
     }
 
-    private String processDesc(CtElement element, String desc, @Nullable CtElement original) {
+    private String processDesc(CtElement element, String desc, @Nullable JavadocImports original) {
         List<String> builder = new ArrayList<>();
         StringBuilder current = new StringBuilder();
         for (int i = 0; i < desc.length(); i++) {
@@ -149,39 +155,24 @@ private int parseSimpleName(StringBuilder builder, String full, int start) {
         return full.length();
     }
 
-    private String simplifyName(CtElement context, CtType<?> type, @Nullable CtElement original) {
+    private String simplifyName(CtElement context, TypeName type, @Nullable JavadocImports original) {
         if (original == null) {
-            return type.getQualifiedName();
+            return type.qualifiedName();
         }
-        if (type.getPackage() != null && type.getPackage().getQualifiedName().equals("java.lang")) {
-            return type.getSimpleName();
+        if (type.packageName().equals("java.lang")) {
+            return type.simpleName();
         }
         CtType<?> contextType = context instanceof CtType ? (CtType<?>) context : context.getParent(CtType.class);
-        if (contextType != null && contextType.getPackage() != null && type.getPackage() != null && contextType.getPackage().getQualifiedName().equals(type.getPackage().getQualifiedName())) {
-            return type.getSimpleName();
+        if (contextType != null && contextType.getPackage() != null && contextType.getPackage().getQualifiedName().equals(type.packageName())) {
+            return type.simpleName();
         }
-        CtCompilationUnit parentUnit = original.getPosition().getCompilationUnit();
-        return parentUnit.getImports()
-            .stream()
-            .map(it -> {
-                if (it.getImportKind() == CtImportKind.UNRESOLVED) {
-                    var ref = ((CtUnresolvedImport) it).getUnresolvedReference();
-                    if (ref.endsWith("*")) {
-                        ref = ref.substring(0, ref.length() - 1);
-                    }
-                    return ref.equals(type.getQualifiedName()) ? type.getSimpleName() : null;
-                } else if (it.getImportKind() == CtImportKind.ALL_TYPES) {
-                    var packageName = ((CtPackageReference) it.getReference()).getQualifiedName();
-                    return packageName.equals(type.getPackage().getQualifiedName()) ? type.getQualifiedName().substring(packageName.length() + 1) : null;
-                } else if (it.getImportKind() == CtImportKind.TYPE) {
-                    var typeName = it.getReference().getSimpleName();
-                    return typeName.equals(type.getSimpleName()) || type.getSimpleName().startsWith(typeName+".") ? type.getSimpleName() : null;
-                }
-                return null;
-            })
-            .filter(Objects::nonNull)
-            .findFirst()
-            .orElse(type.getQualifiedName());
+        var simplified = original.simplify(type);
+        return simplified == null ? type.qualifiedName() : simplified;
+    }
+
+    private static TypeName nameOf(CtType<?> type) {
+        CtPackage typePackage = type.getPackage();
+        return new TypeName(type.getQualifiedName(), type.getSimpleName(), typePackage == null ? "" : typePackage.getQualifiedName());
     }
 
     /*
@@ -199,7 +190,7 @@ Permission is hereby granted, free of charge, to any person obtaining a copy of
 
      */
 
-    private Optional<CtType<?>> qualifyType(CtElement context, String name) {
+    private Optional<TypeName> qualifyType(CtElement context, String name) {
         CtType<?> contextType = context instanceof CtType ? (CtType<?>) context : context.getParent(CtType.class);
 
         if (contextType != null && !name.isBlank()) {
@@ -208,7 +199,7 @@ private Optional<CtType<?>> qualifyType(CtElement context, String name) {
                 .filter(it -> it.getSimpleName().equals(name) || it.getQualifiedName().equals(name))
                 .findAny();
             if (type.isPresent()) {
-                return Optional.ofNullable(type.get().getTypeDeclaration());
+                return tryLoadModelOrIndex(context, type.get().getQualifiedName());
             }
 
             CtPackage contextPackage = contextType.getPackage();
@@ -217,37 +208,38 @@ private Optional<CtType<?>> qualifyType(CtElement context, String name) {
             }
             if (contextPackage != null) {
                 CtType<?> siblingType = contextPackage.getType(name);
-                if (siblingType != null) {
-                    return Optional.of(siblingType);
+                // A model may hold a whole chunk of files; only siblings from the same file count, as with a single-file model
+                if (siblingType != null && siblingType.getPosition().getCompilationUnit() == contextType.getPosition().getCompilationUnit()) {
+                    return Optional.of(nameOf(siblingType));
                 }
             }
         }
         if (contextType != null && name.isBlank()) {
-            return Optional.of(contextType);
+            return Optional.of(nameOf(contextType));
         }
 
         CtCompilationUnit parentUnit = context.getPosition().getCompilationUnit();
-        Optional<CtType<?>> importedType = getImportedType(context, name, parentUnit);
+        Optional<TypeName> importedType = getImportedType(context, name, parentUnit);
         if (importedType.isPresent()) {
             return importedType;
         }
 
         // The classes are not imported and not referenced if they are only used in javadoc...
         if (name.startsWith("java.lang")) {
-            return tryLoadModelOrReflection(context, name);
+            return tryLoadModelOrIndex(context, name);
         }
 
         CtType<?> directLookupType = context.getFactory().Type().get(name);
         if (directLookupType != null) {
-            return Optional.of(directLookupType);
+            return Optional.of(nameOf(directLookupType));
         }
 
-        return tryLoadModelOrReflection(context, name)
-            .or(() -> tryLoadModelOrReflection(context, "java.lang." + name));
+        return tryLoadModelOrIndex(context, name)
+            .or(() -> tryLoadModelOrIndex(context, "java.lang." + name));
     }
 
-    private Optional<CtType<?>> getImportedType(CtElement context, String name, CtCompilationUnit parentUnit) {
-        Optional<CtType<?>> referencedImportedType = parentUnit.getImports()
+    private Optional<TypeName> getImportedType(CtElement context, String name, CtCompilationUnit parentUnit) {
+        Optional<TypeName> referencedImportedType = parentUnit.getImports()
             .stream()
             .filter(it -> it.getImportKind() == CtImportKind.TYPE)
             .filter(it -> it.getReference().getSimpleName().equals(name) || name.startsWith(it.getReference().getSimpleName()+"."))
@@ -257,19 +249,19 @@ private Optional<CtType<?>> getImportedType(CtElement context, String name, CtCo
                     .stream()
                     .filter(it -> it.getSimpleName().equals(name))
                     .findFirst()
-                    .map(CtTypeReference::getTypeDeclaration)
+                    .flatMap(it -> tryLoadModelOrIndex(context, it.getQualifiedName()))
                     .flatMap(type -> {
                         if (!name.equals(ctImport.getReference().getSimpleName())) {
                             String remaining = name.substring(ctImport.getReference().getSimpleName().length() + 1);
                             String[] parts = remaining.split("\\.");
-                            CtType<?> current = type;
+                            Optional<TypeName> current = Optional.of(type);
                             for (String part : parts) {
-                                current = current.getNestedType(part);
-                                if (current == null) {
+                                current = tryLoadModelOrIndex(context, current.get().qualifiedName() + "$" + part);
+                                if (current.isEmpty()) {
                                     return Optional.empty();
                                 }
                             }
-                            return Optional.of(current);
+                            return current;
                         }
                         return Optional.of(type);
                     })
@@ -284,7 +276,7 @@ private Optional<CtType<?>> getImportedType(CtElement context, String name, CtCo
             .filter(it -> it.getReference() instanceof CtPackageReference)
             .flatMap(it -> {
                 String reference = ((CtPackageReference) it.getReference()).getQualifiedName();
-                return tryLoadModelOrReflection(context, reference + "." + name).stream();
+                return tryLoadModelOrIndex(context, reference + "." + name).stream();
             }).findFirst();
 
         if (referencedImportedType.isPresent()) {
@@ -299,26 +291,23 @@ private Optional<CtType<?>> getImportedType(CtElement context, String name, CtCo
                 String reference = ((CtUnresolvedImport) it).getUnresolvedReference();
                 reference = reference.substring(0, reference.length() - 1);
 
-                return tryLoadModelOrReflection(context, reference + name).stream();
+                return tryLoadModelOrIndex(context, reference + name).stream();
             })
             .findFirst();
 
         return referencedImportedType;
     }
 
-    private Optional<CtType<?>> tryLoadModelOrReflection(CtElement context, String name) {
+    /**
+     * Looks a type up in the model, then on the classpath. Classpath types are only ever read as names from the type
+     * index; asking the factory for them would build a reflective shadow model and load the class along with its
+     * dependencies.
+     */
+    private Optional<TypeName> tryLoadModelOrIndex(CtElement context, String name) {
         CtType<?> inModel = context.getFactory().Type().get(name);
         if (inModel != null) {
-            return Optional.of(inModel);
-        }
-        return tryLoadClass(name).map(context.getFactory().Type()::get);
-    }
-
-    private Optional<Class<?>> tryLoadClass(String name) {
-        try {
-            return Optional.of(Class.forName(name, false, classLoader));
-        } catch (ClassNotFoundException e) {
-            return Optional.empty();
+            return Optional.of(nameOf(inModel));
         }
+        return typeIndex.find(name);
     }
 }
@@ -0,0 +1,66 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import dev.lukebemish.docpatcher.plugin.impl.ClasspathTypeIndex.TypeName;
+import org.jetbrains.annotations.Nullable;
+import spoon.experimental.CtUnresolvedImport;
+import spoon.reflect.declaration.CtElement;
+import spoon.reflect.declaration.CtImportKind;
+import spoon.reflect.reference.CtPackageReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The imports of a clean source, as far as shortening the names in expanded javadoc links is concerned. Kept apart from
+ * the model so that a clean source can be compared against without holding, or even building, its model.
+ */
+public record JavadocImports(List<Entry> entries) {
+    public enum Kind {
+        UNRESOLVED,
+        ALL_TYPES,
+        TYPE
+    }
+
+    /**
+     * An import by the name that matters for its kind: the reference as written for unresolved imports, the package for
+     * on-demand imports, and the simple name for single-type imports.
+     */
+    public record Entry(Kind kind, String name) {}
+
+    public static JavadocImports of(CtElement element) {
+        List<Entry> entries = new ArrayList<>();
+        for (var it : element.getPosition().getCompilationUnit().getImports()) {
+            if (it.getImportKind() == CtImportKind.UNRESOLVED) {
+                entries.add(new Entry(Kind.UNRESOLVED, ((CtUnresolvedImport) it).getUnresolvedReference()));
+            } else if (it.getImportKind() == CtImportKind.ALL_TYPES && it.getReference() instanceof CtPackageReference packageReference) {
+                entries.add(new Entry(Kind.ALL_TYPES, packageReference.getQualifiedName()));
+            } else if (it.getImportKind() == CtImportKind.TYPE) {
+                entries.add(new Entry(Kind.TYPE, it.getReference().getSimpleName()));
+            }
+        }
+        return new JavadocImports(List.copyOf(entries));
+    }
+
+    /**
+     * The shortest name by which the first matching import makes the type available, or {@code null} if none does.
+     */
+    public @Nullable String simplify(TypeName type) {
+        for (var entry : entries) {
+            String simplified = switch (entry.kind()) {
+                case UNRESOLVED -> {
+                    var ref = entry.name();
+                    if (ref.endsWith("*")) {
+                        ref = ref.substring(0, ref.length() - 1);
+                    }
+                    yield ref.equals(type.qualifiedName()) ? type.simpleName() : null;
+                }
+                case ALL_TYPES -> entry.name().equals(type.packageName()) ? type.qualifiedName().substring(entry.name().length() + 1) : null;
+                case TYPE -> entry.name().equals(type.simpleName()) || type.simpleName().startsWith(entry.name() + ".") ? type.simpleName() : null;
+            };
+            if (simplified != null) {
+                return simplified;
+            }
+        }
+        return null;
+    }
+}
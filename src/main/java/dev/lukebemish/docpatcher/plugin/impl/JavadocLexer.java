@@ -0,0 +1,163 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds javadoc comments in a source file without parsing it, skipping over strings, text blocks and other comments.
+ */
+public final class JavadocLexer {
+    private JavadocLexer() {}
+
+    /**
+     * A javadoc comment, with an inclusive end like a Spoon {@link spoon.reflect.cu.SourcePosition}.
+     */
+    public record Span(int start, int end) {}
+
+    /**
+     * @param typeStart the end of the package and import header, or {@code -1} if no declaration follows it
+     * @param typeEnd the closing brace of the last top-level declaration, or {@code -1} if there is none
+     */
+    public record Result(List<Span> javadocs, int typeStart, int typeEnd, boolean unicodeEscapes) {
+        /**
+         * Whether the lexed spans can be trusted. The compiler translates unicode escapes before it finds comments or
+         * literals, so an escaped {@code *} after {@code /*} opens a javadoc and an escaped quote closes a string; the
+         * lexer does not, and a source with any escape is left to the full cycle.
+         */
+        public boolean exact() {
+            return !unicodeEscapes;
+        }
+
+        public boolean hasJavadocs() {
+            return !javadocs.isEmpty();
+        }
+
+        /**
+         * Whether every javadoc sits between the header and the end of the last top-level declaration, where Spoon
+         * attaches it to a type; only then does stripping the spans match stripping the model.
+         */
+        public boolean allWithinTypes() {
+            if (typeStart < 0 || typeEnd < 0) {
+                return javadocs.isEmpty();
+            }
+            return javadocs.stream().allMatch(span -> span.start() >= typeStart && span.end() < typeEnd);
+        }
+    }
+
+    public static Result lex(String source) {
+        List<Span> javadocs = new ArrayList<>();
+        int length = source.length();
+        int depth = 0;
+        boolean inHeader = false;
+        int headerEnd = 0;
+        int typeStart = -1;
+        int typeEnd = -1;
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '/' && i + 1 < length && source.charAt(i + 1) == '/') {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+                continue;
+            }
+            if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+                boolean javadoc = source.startsWith("/**", i) && !source.startsWith("/**/", i);
+                if (javadoc) {
+                    javadocs.add(new Span(i, end - 1));
+                }
+                i = end;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            if (depth == 0 && typeStart < 0) {
+                if (inHeader) {
+                    if (c == ';') {
+                        inHeader = false;
+                        headerEnd = i + 1;
+                    }
+                } else if (c == ';') {
+                    headerEnd = i + 1;
+                } else if (source.startsWith("package", i) || source.startsWith("import", i)) {
+                    int wordEnd = identifierEnd(source, i);
+                    String word = source.substring(i, wordEnd);
+                    if (word.equals("package") || word.equals("import")) {
+                        inHeader = true;
+                        i = wordEnd;
+                        continue;
+                    }
+                    typeStart = headerEnd;
+                } else {
+                    typeStart = headerEnd;
+                }
+            }
+            if (c == '"' || c == '\'') {
+                i = skipLiteral(source, i);
+                continue;
+            }
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0 && typeStart >= 0) {
+                    typeEnd = i;
+                }
+            } else if (Character.isJavaIdentifierStart(c)) {
+                i = identifierEnd(source, i);
+                continue;
+            }
+            i++;
+        }
+        return new Result(javadocs, typeStart, typeEnd, hasUnicodeEscape(source));
+    }
+
+    private static boolean hasUnicodeEscape(String source) {
+        int i = source.indexOf('\\');
+        while (i >= 0) {
+            int run = i;
+            while (run < source.length() && source.charAt(run) == '\\') {
+                run++;
+            }
+            // Only a backslash preceded by an even number of backslashes starts an escape
+            if ((run - i) % 2 == 1 && run < source.length() && source.charAt(run) == 'u') {
+                return true;
+            }
+            i = source.indexOf('\\', run);
+        }
+        return false;
+    }
+
+    private static int identifierEnd(String source, int start) {
+        int i = start;
+        while (i < source.length() && Character.isJavaIdentifierPart(source.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipLiteral(String source, int start) {
+        char quote = source.charAt(start);
+        boolean textBlock = quote == '"' && source.startsWith("\"\"\"", start);
+        int i = start + (textBlock ? 3 : 1);
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (textBlock) {
+                if (source.startsWith("\"\"\"", i)) {
+                    return i + 3;
+                }
+                i++;
+            } else if (c == quote || c == '\n') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return source.length();
+    }
+}
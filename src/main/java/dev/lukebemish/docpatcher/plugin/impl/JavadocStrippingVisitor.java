@@ -11,19 +11,21 @@
 public class JavadocStrippingVisitor {
     public void visit(SourcePosition pos) {
         if (pos.isValidPosition()) {
-            var begin = pos.getSourceStart();
-            var end = pos.getSourceEnd();
-            var endLast = end;
-            while (end < value.length()) {
-                if (!Character.isWhitespace(value.charAt(end))) {
-                    break;
-                }
-                endLast = end;
-                end++;
+            visit(pos.getSourceStart(), pos.getSourceEnd());
+        }
+    }
+
+    public void visit(int begin, int end) {
+        var endLast = end;
+        while (end < value.length()) {
+            if (!Character.isWhitespace(value.charAt(end))) {
+                break;
             }
-            breakStarts.add(begin);
-            breakEnds.add(endLast);
+            endLast = end;
+            end++;
         }
+        breakStarts.add(begin);
+        breakEnds.add(endLast);
     }
 
     public void visit(CtElement element) {
@@ -38,12 +40,24 @@ public void visit(CtElement element) {
     final List<Integer> breakStarts = new ArrayList<>();
     final List<Integer> breakEnds = new ArrayList<>();
     final String value;
+    // Spans the whole use of the visitor, from finding javadocs to cutting them out
+    private final PhaseEvent event = PhaseEvent.start(PhaseEvent.STRIP);
+    private final String className;
 
-    public JavadocStrippingVisitor(String value) {
+    public JavadocStrippingVisitor(String className, String value) {
+        this.className = className;
         this.value = value;
     }
 
     public String build() {
+        try {
+            return strip();
+        } finally {
+            event.finish(className, value.length());
+        }
+    }
+
+    private String strip() {
         List<Integer> indices = indices();
 
         String out = value;
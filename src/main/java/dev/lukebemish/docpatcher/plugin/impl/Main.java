@@ -0,0 +1,266 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs patch application, generation, or missed patch collection without Gradle. This class only touches what the
+ * chosen command needs: Spoon is not loaded until a source has to be parsed, nor Gson until a patch is read or
+ * written, so a run whose sources mostly pass through starts about as fast as the JVM does. Startup can be cut further
+ * with a class data sharing archive; see the readme.
+ */
+public final class Main {
+    private Main() {}
+
+    private static final String USAGE = """
+        Usage: docpatcher <command> [options]
+
+        Commands:
+          apply     --source <dir> (--output <dir> | --output-archive <file>) [--patches <dir>] [--missed <dir>]
+                    [--stripped-output <dir>] [--no-original] [--original-tag <tag>] [--sanitize-original]
+                    [--link-resources] [--clean-cache <dir>] [--class <name>]... [--package <name>]...
+          generate  --clean <dir> --modified <dir> --output <dir> [--clean-cache <dir>] [--class <name>]...
+                    [--package <name>]...
+          missed    --source <dir> --patches <dir> --output <dir>
+
+        Options for every command:
+          --classpath <paths>     Classpath to resolve sources against, separated by the platform path separator.
+                                  May be repeated.
+          --java-version <n>      Java version to parse sources as; defaults to that of the running JVM.
+          --memory-budget <MiB>   Heap to split between the chunks of sources parsed at once.
+          --timings <dir>         Directory to keep per-file timings in, to schedule the slowest files first.
+          --quiet                 Prints nothing but errors.
+        """;
+
+    private static final Set<String> COMMON_OPTIONS = Set.of("classpath", "java-version", "memory-budget", "timings");
+    private static final Set<String> COMMON_FLAGS = Set.of("quiet");
+
+    public static void main(String[] args) {
+        if (args.length == 0 || args[0].equals("--help") || args[0].equals("-h")) {
+            System.out.print(USAGE);
+            return;
+        }
+        try {
+            run(args[0], List.of(args).subList(1, args.length));
+        } catch (UsageException e) {
+            System.err.println(e.getMessage());
+            System.err.println();
+            System.err.print(USAGE);
+            System.exit(2);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static void run(String command, List<String> args) {
+        switch (command) {
+            case "apply" -> {
+                var arguments = Arguments.parse(args,
+                    Set.of("source", "output", "output-archive", "patches", "missed", "stripped-output", "original-tag", "clean-cache", "class", "package"),
+                    Set.of("no-original", "sanitize-original", "link-resources")
+                );
+                Path source = arguments.directory("source");
+                Path output = arguments.path("output");
+                Path outputArchive = arguments.path("output-archive");
+                if ((output == null) == (outputArchive == null)) {
+                    throw new UsageException("Exactly one of --output and --output-archive is required");
+                }
+                Path patches = arguments.path("patches");
+                var outputs = new PatchApplier.Outputs(output, outputArchive, arguments.path("missed"), arguments.path("stripped-output"));
+                var filter = SourceFilter.of(arguments.all("class"), arguments.all("package"));
+                try (var classpath = arguments.classpath()) {
+                    int javaVersion = arguments.javaVersion();
+                    var applier = new PatchApplier(
+                        classpath,
+                        javaVersion,
+                        !arguments.flag("no-original"),
+                        arguments.value("original-tag"),
+                        arguments.flag("sanitize-original"),
+                        arguments.cleanCache(javaVersion, classpath)
+                    );
+                    int matched = applier.apply(source, patches, outputs, filter, arguments.flag("link-resources"), arguments.memoryBudget(), arguments.timings(), arguments.progress("Applying patches"));
+                    if (matched == 0 && !filter.isEmpty()) {
+                        System.err.println("No sources in " + source + " match the given classes or packages");
+                    }
+                }
+            }
+            case "generate" -> {
+                var arguments = Arguments.parse(args, Set.of("clean", "modified", "output", "clean-cache", "class", "package"), Set.of());
+                Path clean = arguments.directory("clean");
+                Path modified = arguments.directory("modified");
+                Path output = arguments.required("output");
+                var filter = SourceFilter.of(arguments.all("class"), arguments.all("package"));
+                try (var classpath = arguments.classpath()) {
+                    int javaVersion = arguments.javaVersion();
+                    var generator = new PatchGenerator(classpath, javaVersion, arguments.cleanCache(javaVersion, classpath));
+                    int matched = generator.generate(clean, modified, output, filter, arguments.memoryBudget(), arguments.timings(), arguments.progress("Generating patches"));
+                    if (matched == 0 && !filter.isEmpty()) {
+                        System.err.println("No sources in " + modified + " match the given classes or packages");
+                    }
+                }
+            }
+            case "missed" -> {
+                var arguments = Arguments.parse(args, Set.of("source", "patches", "output"), Set.of());
+                Path source = arguments.directory("source");
+                Path patches = arguments.directory("patches");
+                Path output = arguments.required("output");
+                try (var classpath = arguments.classpath()) {
+                    var finder = new MissedPatchFinder(classpath, arguments.javaVersion());
+                    finder.find(source, patches, output, arguments.memoryBudget(), arguments.timings(), arguments.progress("Finding missed patches"));
+                }
+            }
+            default -> throw new UsageException("Unknown command: " + command);
+        }
+    }
+
+    private static final class UsageException extends RuntimeException {
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    private record Arguments(Map<String, List<String>> values, Set<String> flags) {
+        static Arguments parse(List<String> args, Set<String> options, Set<String> flags) {
+            Map<String, List<String>> values = new HashMap<>();
+            Set<String> present = new HashSet<>();
+            for (int i = 0; i < args.size(); i++) {
+                var arg = args.get(i);
+                if (!arg.startsWith("--")) {
+                    throw new UsageException("Unexpected argument: " + arg);
+                }
+                var name = arg.substring(2);
+                if (flags.contains(name) || COMMON_FLAGS.contains(name)) {
+                    present.add(name);
+                } else if (options.contains(name) || COMMON_OPTIONS.contains(name)) {
+                    if (i + 1 == args.size()) {
+                        throw new UsageException("Missing value for " + arg);
+                    }
+                    values.computeIfAbsent(name, k -> new ArrayList<>()).add(args.get(++i));
+                } else {
+                    throw new UsageException("Unknown option: " + arg);
+                }
+            }
+            return new Arguments(values, present);
+        }
+
+        boolean flag(String name) {
+            return flags.contains(name);
+        }
+
+        List<String> all(String name) {
+            return values.getOrDefault(name, List.of());
+        }
+
+        @Nullable String value(String name) {
+            var all = all(name);
+            if (all.size() > 1) {
+                throw new UsageException("--" + name + " may only be given once");
+            }
+            return all.isEmpty() ? null : all.get(0);
+        }
+
+        @Nullable Path path(String name) {
+            var value = value(name);
+            return value == null ? null : Path.of(value);
+        }
+
+        Path required(String name) {
+            var path = path(name);
+            if (path == null) {
+                throw new UsageException("--" + name + " is required");
+            }
+            return path;
+        }
+
+        Path directory(String name) {
+            var path = required(name);
+            if (!Files.isDirectory(path)) {
+                throw new UsageException("--" + name + " is not a directory: " + path);
+            }
+            return path;
+        }
+
+        int integer(String name, int defaultValue) {
+            var value = value(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new UsageException("--" + name + " is not a number: " + value);
+            }
+        }
+
+        int javaVersion() {
+            return integer("java-version", Runtime.version().feature());
+        }
+
+        @Nullable Integer memoryBudget() {
+            return value("memory-budget") == null ? null : integer("memory-budget", 0);
+        }
+
+        ClasspathContext classpath() {
+            List<File> files = new ArrayList<>();
+            for (var value : all("classpath")) {
+                for (var entry : value.split(File.pathSeparator)) {
+                    if (!entry.isEmpty()) {
+                        files.add(new File(entry));
+                    }
+                }
+            }
+            return new ClasspathContext(files);
+        }
+
+        @Nullable CleanCache cleanCache(int javaVersion, ClasspathContext classpath) {
+            var root = path("clean-cache");
+            return root == null ? null : new CleanCache(root, javaVersion, classpath.files());
+        }
+
+        @Nullable FileTimings timings() {
+            var directory = path("timings");
+            return directory == null ? null : FileTimings.load(directory);
+        }
+
+        SourcePipeline.Progress progress(String description) {
+            return flag("quiet") ? SourcePipeline.Progress.NONE : new ConsoleProgress(description);
+        }
+    }
+
+    /**
+     * Reports the number of files processed, and how long that took, once a run finishes.
+     */
+    private static final class ConsoleProgress implements SourcePipeline.Progress {
+        private final String description;
+        private int total;
+        private long start;
+
+        ConsoleProgress(String description) {
+            this.description = description;
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void started(int total) {
+            this.total = total;
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void finished() {
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.println(String.format(Locale.ROOT, "%s: %d files in %.2f s", description, total, seconds));
+        }
+    }
+}
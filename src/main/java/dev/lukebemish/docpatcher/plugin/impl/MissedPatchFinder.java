@@ -0,0 +1,68 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import net.neoforged.javadoctor.injector.JavadocProvider;
+import net.neoforged.javadoctor.spec.ClassJavadoc;
+import org.jetbrains.annotations.Nullable;
+import spoon.Launcher;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the entries of each patch that match no member of the source it applies to, and writes them out as patches
+ * of their own.
+ */
+public final class MissedPatchFinder {
+    private final ClasspathContext classpath;
+    private final int javaVersion;
+
+    public MissedPatchFinder(ClasspathContext classpath, int javaVersion) {
+        this.classpath = classpath;
+        this.javaVersion = javaVersion;
+    }
+
+    /**
+     * Writes the missed entries of the patches under the given root, clearing the output first.
+     */
+    public void find(Path sourceRoot, Path patchesRoot, Path outputRoot, @Nullable Integer memoryBudget, @Nullable FileTimings timings, SourcePipeline.Progress progress) {
+        Utils.delete(outputRoot);
+        SpoonRemainingVisitor visitor = new SpoonRemainingVisitor();
+        PatchSet provider = PatchSet.scan(patchesRoot);
+        try (var pipeline = new SourcePipeline(outputRoot, timings, progress)) {
+            var files = pipeline.walk(sourceRoot).stream()
+                .filter(SourceFiles.SourceFile::isJava)
+                .filter(file -> provider.contains(file.className()))
+                .toList();
+            for (var chunk : pipeline.partition(files, memoryBudget)) {
+                pipeline.submit(chunk, SourcePipeline::read, sources -> missedPatches(sources, visitor, provider));
+            }
+            pipeline.await();
+        }
+    }
+
+    private List<SourcePipeline.Output> missedPatches(List<SourcePipeline.Source> chunk, SpoonRemainingVisitor visitor, JavadocProvider provider) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (var source : chunk) {
+            sources.put(source.file().relativePath(), source.contents());
+        }
+        var types = Utils.buildModels(makeLauncher(), sources);
+        List<SourcePipeline.Output> outputs = new ArrayList<>();
+        for (var source : chunk) {
+            String className = source.file().className();
+            var type = types.get(source.file().relativePath()).stream().findAny().orElseThrow();
+            ClassJavadoc javadoc = provider.get(className);
+            ClassJavadoc remainder = javadoc == null ? null : visitor.visit(ClassSignatures.of(type), javadoc);
+            if (remainder != null) {
+                outputs.add(new SourcePipeline.Output(className + PatchSet.SUFFIX, Utils.toJson(className, remainder)));
+            }
+        }
+        return outputs;
+    }
+
+    private Launcher makeLauncher() {
+        return Utils.makeSignatureLauncher(javaVersion, classpath.classLoader(), classpath.nameEnvironments(javaVersion));
+    }
+}
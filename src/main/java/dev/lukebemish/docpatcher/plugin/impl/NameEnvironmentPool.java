@@ -0,0 +1,32 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Keeps JDT name environments for one classpath warm between compilations. Opening the classpath and indexing its
+ * packages happens once per environment rather than once per model; each environment is only used by one compilation
+ * at a time, so a pool grows to at most the number of models built concurrently.
+ */
+public final class NameEnvironmentPool implements AutoCloseable {
+    private final ConcurrentLinkedQueue<FileSystem> idle = new ConcurrentLinkedQueue<>();
+
+    FileSystem acquire(Supplier<FileSystem> factory) {
+        var environment = idle.poll();
+        return environment != null ? environment : factory.get();
+    }
+
+    void release(FileSystem environment) {
+        idle.offer(environment);
+    }
+
+    @Override
+    public void close() {
+        FileSystem environment;
+        while ((environment = idle.poll()) != null) {
+            environment.cleanup();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A javadoc comment with its links expanded: the description, and the processed content of each block tag grouped by
+ * tag name in source order.
+ */
+public record ParsedJavadoc(String content, Map<String, List<String>> tags) {
+    /**
+     * Indexes {@code @param} tag contents by their first word, the parameter name or {@code <T>} for a type parameter.
+     * Where a name is documented more than once, the first tag wins.
+     */
+    static Map<String, String> indexParams(List<String> params) {
+        Map<String, String> index = new HashMap<>(params.size() * 2);
+        for (var param : params) {
+            index.putIfAbsent(param.trim().split(" ")[0], param);
+        }
+        return index;
+    }
+}
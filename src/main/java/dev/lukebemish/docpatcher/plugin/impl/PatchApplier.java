@@ -0,0 +1,307 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import net.neoforged.javadoctor.injector.CombiningJavadocProvider;
+import net.neoforged.javadoctor.injector.JavadocInjector;
+import net.neoforged.javadoctor.injector.JavadocProvider;
+import net.neoforged.javadoctor.injector.ast.JClassParser;
+import net.neoforged.javadoctor.injector.spoon.SpoonClassParser;
+import net.neoforged.javadoctor.spec.ClassJavadoc;
+import org.jetbrains.annotations.Nullable;
+import spoon.Launcher;
+import spoon.reflect.declaration.CtType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Applies patches to a clean source: its javadocs are stripped, and the patches, along with the original docs if they
+ * are kept, are injected in their place. Non-java files are copied across. Patches that match no member of their class
+ * may be written out as missed patches, and the source may be written a second time without original docs.
+ */
+public final class PatchApplier {
+    /**
+     * Where a run writes. Exactly one of the output directory and archive is given; the others are optional.
+     */
+    public record Outputs(@Nullable Path directory, @Nullable Path archive, @Nullable Path missed, @Nullable Path stripped) {}
+
+    private final ClasspathContext classpath;
+    private final int javaVersion;
+    private final boolean keepOriginal;
+    private final @Nullable String originalTag;
+    private final boolean sanitizeOriginal;
+    private final @Nullable CleanCache cache;
+
+    public PatchApplier(ClasspathContext classpath, int javaVersion, boolean keepOriginal, @Nullable String originalTag, boolean sanitizeOriginal, @Nullable CleanCache cache) {
+        this.classpath = classpath;
+        this.javaVersion = javaVersion;
+        this.keepOriginal = keepOriginal;
+        this.originalTag = originalTag;
+        this.sanitizeOriginal = sanitizeOriginal;
+        this.cache = cache;
+    }
+
+    /**
+     * Applies the patches under the given root, if any, to the selected sources. Outputs are rewritten in place; when
+     * nothing is filtered out, whatever the run did not produce is then removed from them. Returns the number of java
+     * sources selected.
+     */
+    public int apply(Path sourceRoot, @Nullable Path patchesRoot, Outputs outputs, SourceFilter filter, boolean linkResources, @Nullable Integer memoryBudget, @Nullable FileTimings timings, SourcePipeline.Progress progress) {
+        // An archive is rewritten whole, so it can hold nothing but the classes selected
+        SourceArchive archive = outputs.archive() != null ? new SourceArchive(outputs.archive()) : null;
+        if (archive != null && !filter.isEmpty()) {
+            throw new RuntimeException("Patches for some classes or packages cannot be applied to an output archive");
+        }
+        PatchSet patches = PatchSet.scan(patchesRoot);
+        Path missedRoot = outputs.missed();
+        Path strippedRoot = outputs.stripped();
+        try (archive; var pipeline = archive != null ? new SourcePipeline(archive, timings, progress) : new SourcePipeline(requireDirectory(outputs), timings, progress)) {
+            var files = pipeline.walk(sourceRoot);
+            if (filter.isEmpty()) {
+                for (var file : files) {
+                    if (!file.isJava() && filter.inShard(file.relativePath())) {
+                        pipeline.copy(file, linkResources);
+                        if (strippedRoot != null) {
+                            // The stripped tree becomes the modified directory, which is edited in place
+                            pipeline.copy(file, strippedRoot, false);
+                        }
+                    }
+                }
+            }
+            var javaFiles = files.stream().filter(SourceFiles.SourceFile::isJava).filter(file -> filter.matches(file.className())).toList();
+            if (missedRoot != null && !filter.isEmpty()) {
+                // Missed patches are only written when there are some, so stale ones have to go first
+                for (var file : javaFiles) {
+                    try {
+                        Files.deleteIfExists(missedRoot.resolve(file.className() + PatchSet.SUFFIX));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+            for (var chunk : pipeline.partition(javaFiles, memoryBudget)) {
+                pipeline.submit(chunk, SourcePipeline::read, sources -> applyPatches(sources, patches, missedRoot, strippedRoot));
+            }
+            pipeline.await();
+            if (archive != null) {
+                archive.finish();
+            }
+            if (filter.isEmpty()) {
+                // Rather than being cleared up front, outputs are rewritten in place, so unchanged files keep their timestamps
+                if (archive == null) {
+                    pipeline.removeStale(requireDirectory(outputs));
+                }
+                if (missedRoot != null) {
+                    pipeline.removeStale(missedRoot);
+                }
+                if (strippedRoot != null) {
+                    pipeline.removeStale(strippedRoot);
+                }
+                if (cache != null) {
+                    cache.prune();
+                }
+            }
+            return javaFiles.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Path requireDirectory(Outputs outputs) {
+        if (outputs.directory() == null) {
+            throw new RuntimeException("Either an output directory or an output archive is required");
+        }
+        return outputs.directory();
+    }
+
+    private List<SourcePipeline.Output> applyPatches(List<SourcePipeline.Source> chunk, PatchSet patches, @Nullable Path missedRoot, @Nullable Path strippedRoot) {
+        Map<String, String> passthrough = new HashMap<>();
+        Map<String, String> strippedPassthrough = new HashMap<>();
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (var source : chunk) {
+            var contents = passthrough(source, patches, keepOriginal);
+            if (contents != null) {
+                passthrough.put(source.file().relativePath(), contents);
+            }
+            var strippedContents = strippedRoot == null ? null : passthrough(source, patches, false);
+            if (strippedContents != null) {
+                strippedPassthrough.put(source.file().relativePath(), strippedContents);
+            }
+            if (contents == null || (strippedRoot != null && strippedContents == null)) {
+                sources.put(source.file().relativePath(), source.contents());
+            }
+        }
+        Map<String, CleanSource> cleanSources = cleanSources(sources);
+        // Patches are read once per chunk, whether by the injectors or when looking for missed entries
+        Map<String, @Nullable ClassJavadoc> loaded = new HashMap<>();
+        JavadocProvider chunkPatches = className -> {
+            if (!loaded.containsKey(className)) {
+                loaded.put(className, patches.get(className));
+            }
+            return loaded.get(className);
+        };
+        // A chunk that passes through whole never touches an injector, so none are made for it
+        JavadocInjector injector = sources.isEmpty() ? null : createInjector(chunkPatches, createOriginalInjector(cleanSources));
+        // Both outputs are injected into the same stripped source; only the stripped output leaves original docs out
+        JavadocInjector strippedInjector = strippedRoot == null || sources.isEmpty() ? null : createInjector(chunkPatches, className -> null);
+        SpoonRemainingVisitor remainingVisitor = new SpoonRemainingVisitor();
+        List<SourcePipeline.Output> outputs = new ArrayList<>(chunk.size());
+        for (var source : chunk) {
+            String className = source.file().className();
+            String relativePath = source.file().relativePath();
+            String stripped = null;
+            var passed = passthrough.get(relativePath);
+            if (passed != null) {
+                outputs.add(new SourcePipeline.Output(relativePath, passed));
+            } else if (injector != null) {
+                stripped = strip(className, source.contents(), cleanSources.get(relativePath));
+                outputs.add(new SourcePipeline.Output(relativePath, inject(injector, className, stripped)));
+            }
+            if (strippedRoot != null) {
+                var strippedPassed = strippedPassthrough.get(relativePath);
+                if (strippedPassed != null) {
+                    outputs.add(new SourcePipeline.Output(strippedRoot, relativePath, strippedPassed));
+                } else if (strippedInjector != null) {
+                    if (stripped == null) {
+                        stripped = strip(className, source.contents(), cleanSources.get(relativePath));
+                    }
+                    outputs.add(new SourcePipeline.Output(strippedRoot, relativePath, inject(strippedInjector, className, stripped)));
+                }
+            }
+            if (missedRoot != null && patches.contains(className)) {
+                // Injection leaves members alone, so the clean model has the same signatures as the output
+                var signatures = cleanSources.get(relativePath).signatures();
+                if (signatures == null) {
+                    throw new RuntimeException("Expected 1 type, found 0");
+                }
+                ClassJavadoc patch = chunkPatches.get(className);
+                ClassJavadoc remainder = patch == null ? null : remainingVisitor.visit(signatures, patch);
+                if (remainder != null) {
+                    outputs.add(new SourcePipeline.Output(missedRoot, className + PatchSet.SUFFIX, Utils.toJson(className, remainder)));
+                }
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * Reads what applying patches needs of each clean source from the cache, parsing only those that are missing.
+     */
+    private Map<String, CleanSource> cleanSources(Map<String, String> sources) {
+        // Original docs are part of the projection, so whatever they depend on has to be part of the cache key
+        String settings = keepOriginal ? "original\n" + (originalTag == null ? "" : originalTag) + "\n" + sanitizeOriginal : "stripped";
+        Map<String, CleanSource> cleanSources = new HashMap<>();
+        Map<String, String> toParse = new LinkedHashMap<>();
+        for (var source : sources.entrySet()) {
+            var cached = cache == null ? null : cache.getSource(settings, source.getValue());
+            if (cached != null) {
+                cleanSources.put(source.getKey(), cached);
+            } else {
+                toParse.put(source.getKey(), source.getValue());
+            }
+        }
+        if (toParse.isEmpty()) {
+            return cleanSources;
+        }
+        var originals = keepOriginal ? originalDocs(classpath.typeIndex()) : null;
+        for (var entry : Utils.buildModels(makeModelLauncher(), toParse).entrySet()) {
+            var cleanSource = CleanSource.of(entry.getValue(), originals);
+            if (cache != null) {
+                cache.putSource(settings, toParse.get(entry.getKey()), cleanSource);
+            }
+            cleanSources.put(entry.getKey(), cleanSource);
+        }
+        return cleanSources;
+    }
+
+    private static String strip(String className, String contents, CleanSource cleanSource) {
+        var visitor = new JavadocStrippingVisitor(className, contents);
+        for (var span : cleanSource.javadocs()) {
+            visitor.visit(span.start(), span.end());
+        }
+        return visitor.build();
+    }
+
+    private static String inject(JavadocInjector injector, String className, String contents) {
+        var event = PhaseEvent.start(PhaseEvent.INJECT);
+        var result = injector.injectDocs(className, className, contents, null);
+        event.finish(className, contents.length());
+        var injectionResult = result.getResult().orElseThrow(() ->
+            new RuntimeException("Failed to inject docs for " + className + ": " + String.join(", ", result.getProblems()))
+        );
+        return injectionResult.newSource;
+    }
+
+    /**
+     * Produces the output for an unpatched class without building a model, where that gives the same result: a source
+     * with no javadocs passes through untouched, and when original docs are dropped its javadocs are cut out lexically.
+     * Returns {@code null} if the class needs the full strip-and-inject cycle.
+     */
+    private static @Nullable String passthrough(SourcePipeline.Source source, PatchSet patches, boolean keepOriginal) {
+        var file = source.file();
+        var fileName = file.path().getFileName().toString();
+        if (patches.contains(file.className()) || fileName.equals("package-info.java") || fileName.equals("module-info.java")) {
+            return null;
+        }
+        var lexed = JavadocLexer.lex(source.contents());
+        if (!lexed.exact()) {
+            return null;
+        }
+        if (!lexed.hasJavadocs()) {
+            return source.contents();
+        }
+        if (keepOriginal || !lexed.allWithinTypes()) {
+            return null;
+        }
+        var visitor = new JavadocStrippingVisitor(file.className(), source.contents());
+        for (var span : lexed.javadocs()) {
+            visitor.visit(span.start(), span.end());
+        }
+        return visitor.build();
+    }
+
+    private JavadocProvider createOriginalInjector(Map<String, CleanSource> cleanSources) {
+        if (!keepOriginal) {
+            return className -> null;
+        }
+        return className -> {
+            className = className.replace('.', '/');
+            var cleanSource = cleanSources.get(className + ".java");
+            if (cleanSource != null) {
+                if (cleanSource.typeCount() != 1) {
+                    throw new RuntimeException("Expected 1 type, found " + cleanSource.typeCount());
+                }
+                return cleanSource.original();
+            }
+            return null;
+        };
+    }
+
+    private Function<CtType<?>, @Nullable ClassJavadoc> originalDocs(ClasspathTypeIndex typeIndex) {
+        if (originalTag != null) {
+            SpoonJavadocVisitor.TagWrapper visitor = new SpoonJavadocVisitor.TagWrapper(originalTag, sanitizeOriginal, typeIndex);
+            return visitor::visit;
+        }
+        var visitor = new SpoonJavadocVisitor.Simple(sanitizeOriginal, typeIndex);
+        return visitor::visit;
+    }
+
+    private JavadocInjector createInjector(JavadocProvider patches, JavadocProvider original) {
+        JClassParser parser = new SpoonClassParser(this::makeLauncher);
+        return new JavadocInjector(parser, new CombiningJavadocProvider(List.of(patches, original)));
+    }
+
+    private Launcher makeLauncher() {
+        return Utils.makeLauncher(javaVersion, classpath.classLoader(), classpath.nameEnvironments(javaVersion));
+    }
+
+    private Launcher makeModelLauncher() {
+        return Utils.makeModelLauncher(javaVersion, classpath.classLoader(), classpath.nameEnvironments(javaVersion));
+    }
+}
@@ -0,0 +1,121 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import net.neoforged.javadoctor.spec.ClassJavadoc;
+import org.jetbrains.annotations.Nullable;
+import spoon.Launcher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a patch for each modified source that differs in its javadocs from the clean source at the same path.
+ */
+public final class PatchGenerator {
+    private final ClasspathContext classpath;
+    private final int javaVersion;
+    private final @Nullable CleanCache cache;
+
+    public PatchGenerator(ClasspathContext classpath, int javaVersion, @Nullable CleanCache cache) {
+        this.classpath = classpath;
+        this.javaVersion = javaVersion;
+        this.cache = cache;
+    }
+
+    /**
+     * Writes patches for the selected modified sources. When nothing is filtered out, the output is cleared first;
+     * otherwise only the patches of the selected classes are replaced. Returns the number of sources selected.
+     */
+    public int generate(Path cleanRoot, Path modifiedRoot, Path outputRoot, SourceFilter filter, @Nullable Integer memoryBudget, @Nullable FileTimings timings, SourcePipeline.Progress progress) {
+        if (filter.isEmpty()) {
+            Utils.delete(outputRoot);
+        }
+        var visitor = new SpoonJavadocVisitor.Comparing(false, classpath.typeIndex());
+        try (var pipeline = new SourcePipeline(outputRoot, timings, progress)) {
+            var files = pipeline.walk(modifiedRoot).stream()
+                .filter(SourceFiles.SourceFile::isJava)
+                .filter(file -> filter.matches(file.className()))
+                .toList();
+            if (!filter.isEmpty()) {
+                // Patches that no longer differ are not written, so the old ones have to go first
+                for (var file : files) {
+                    try {
+                        Files.deleteIfExists(outputRoot.resolve(file.className() + PatchSet.SUFFIX));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+            for (var chunk : pipeline.partition(files, memoryBudget)) {
+                pipeline.submit(chunk, file -> read(file, cleanRoot), pairs -> generatePatches(pairs, visitor));
+            }
+            pipeline.await();
+            if (filter.isEmpty() && cache != null) {
+                cache.prune();
+            }
+            return files.size();
+        }
+    }
+
+    private record SourcePair(SourceFiles.SourceFile file, String modified, String clean) {}
+
+    private static SourcePair read(SourceFiles.SourceFile file, Path cleanRoot) throws IOException {
+        Path cleanPath = cleanRoot.resolve(file.relativePath());
+        if (!Files.exists(cleanPath)) {
+            throw new RuntimeException("Clean file does not exist: " + cleanPath);
+        }
+        return new SourcePair(file, Files.readString(file.path()), Files.readString(cleanPath));
+    }
+
+    private List<SourcePipeline.Output> generatePatches(List<SourcePair> chunk, SpoonJavadocVisitor.Comparing visitor) {
+        Map<String, String> modifiedSources = new LinkedHashMap<>();
+        Map<String, String> cleanSources = new LinkedHashMap<>();
+        Map<String, CleanType> cleanTypes = new HashMap<>();
+        for (var pair : chunk) {
+            modifiedSources.put(pair.file().relativePath(), pair.modified());
+            var cached = cache == null ? null : cache.getType(pair.clean());
+            if (cached != null) {
+                cleanTypes.put(pair.file().relativePath(), cached);
+            } else {
+                cleanSources.put(pair.file().relativePath(), pair.clean());
+            }
+        }
+        var modifiedTypes = Utils.buildModels(makeLauncher(), modifiedSources);
+        if (!cleanSources.isEmpty()) {
+            for (var entry : Utils.buildModels(makeLauncher(), cleanSources).entrySet()) {
+                var cTypes = entry.getValue();
+                if (cTypes.size() != 1) {
+                    throw new RuntimeException("Expected 1 type, found " + cTypes.size());
+                }
+                var clean = visitor.clean(cTypes.get(0));
+                if (cache != null) {
+                    cache.putType(cleanSources.get(entry.getKey()), clean);
+                }
+                cleanTypes.put(entry.getKey(), clean);
+            }
+        }
+        List<SourcePipeline.Output> outputs = new ArrayList<>();
+        for (var pair : chunk) {
+            var mTypes = modifiedTypes.get(pair.file().relativePath());
+            if (mTypes.size() != 1) {
+                throw new RuntimeException("Expected 1 type, found " + mTypes.size());
+            }
+
+            ClassJavadoc javadoc = visitor.visit(cleanTypes.get(pair.file().relativePath()), mTypes.get(0));
+
+            if (javadoc != null) {
+                outputs.add(new SourcePipeline.Output(pair.file().className() + PatchSet.SUFFIX, Utils.toJson(pair.file().className(), javadoc)));
+            }
+        }
+        return outputs;
+    }
+
+    private Launcher makeLauncher() {
+        return Utils.makeModelLauncher(javaVersion, classpath.classLoader(), classpath.nameEnvironments(javaVersion));
+    }
+}
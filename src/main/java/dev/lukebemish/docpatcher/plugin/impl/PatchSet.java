@@ -0,0 +1,67 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import net.neoforged.javadoctor.injector.JavadocProvider;
+import net.neoforged.javadoctor.spec.ClassJavadoc;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The patches available in a directory, found with a single scan so that classes without a patch can be told apart
+ * without touching the file system again.
+ */
+public final class PatchSet implements JavadocProvider {
+    public static final String SUFFIX = ".docpatcher.json";
+
+    private final @Nullable Path root;
+    private final Set<String> classNames;
+
+    private PatchSet(@Nullable Path root, Set<String> classNames) {
+        this.root = root;
+        this.classNames = classNames;
+    }
+
+    public static PatchSet scan(@Nullable Path root) {
+        if (root == null) {
+            return new PatchSet(null, Set.of());
+        }
+        var classNames = SourceFiles.collect(root).stream()
+            .map(SourceFiles.SourceFile::relativePath)
+            .filter(path -> path.endsWith(SUFFIX))
+            .map(path -> path.substring(0, path.length() - SUFFIX.length()))
+            .collect(Collectors.toUnmodifiableSet());
+        return new PatchSet(root, classNames);
+    }
+
+    public boolean isEmpty() {
+        return classNames.isEmpty();
+    }
+
+    /**
+     * The {@code /}-separated names of the classes with a patch.
+     */
+    public Set<String> classNames() {
+        return classNames;
+    }
+
+    public boolean contains(String className) {
+        return classNames.contains(className.replace('.', '/'));
+    }
+
+    @Override
+    public @Nullable ClassJavadoc get(String className) {
+        className = className.replace('.', '/');
+        if (root == null || !classNames.contains(className)) {
+            return null;
+        }
+        try {
+            return Utils.fromJson(className, Files.readString(root.resolve(className + SUFFIX)));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
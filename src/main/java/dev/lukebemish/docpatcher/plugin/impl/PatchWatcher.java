@@ -0,0 +1,157 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import net.neoforged.javadoctor.spec.ClassJavadoc;
+import spoon.Launcher;
+import spoon.reflect.declaration.CtType;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * Regenerates the patch for each modified source as it is saved. Clean types are read the first time their class is
+ * saved and kept for the life of the watcher, so a save only costs parsing the one modified file and comparing it.
+ */
+public final class PatchWatcher implements AutoCloseable {
+    /**
+     * How long to wait for further events before handling a batch, so that the several events an editor may produce
+     * for one save regenerate the patch once.
+     */
+    private static final long SETTLE_MILLIS = 25;
+
+    public interface Listener {
+        void regenerated(String relativePath, boolean hasPatch, long nanos);
+
+        void failed(String relativePath, Exception exception);
+    }
+
+    private final Path cleanRoot;
+    private final Path modifiedRoot;
+    private final Path patchesRoot;
+    private final Supplier<Launcher> launchers;
+    private final SpoonJavadocVisitor.Comparing visitor;
+    private final Map<String, CleanType> cleanTypes = new HashMap<>();
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    public PatchWatcher(Path cleanRoot, Path modifiedRoot, Path patchesRoot, Supplier<Launcher> launchers, ClasspathTypeIndex typeIndex) throws IOException {
+        this.cleanRoot = cleanRoot;
+        this.modifiedRoot = modifiedRoot;
+        this.patchesRoot = patchesRoot;
+        this.launchers = launchers;
+        this.visitor = new SpoonJavadocVisitor.Comparing(false, typeIndex);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        register(modifiedRoot);
+    }
+
+    /**
+     * Watches until the thread is interrupted.
+     */
+    public void run(Listener listener) throws InterruptedException, IOException {
+        while (true) {
+            WatchKey key = watchService.take();
+            Set<Path> changed = new LinkedHashSet<>();
+            do {
+                collect(key, changed);
+            } while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+            for (var file : changed) {
+                String relativePath = relativePath(file);
+                try {
+                    long start = System.nanoTime();
+                    boolean hasPatch = regenerate(file, relativePath);
+                    listener.regenerated(relativePath, hasPatch, System.nanoTime() - start);
+                } catch (Exception e) {
+                    listener.failed(relativePath, e);
+                }
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) throws IOException {
+        Path directory = directories.get(key);
+        for (var event : key.pollEvents()) {
+            if (directory == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(path);
+                    try (var stream = Files.walk(path)) {
+                        stream.filter(Files::isRegularFile).filter(it -> it.toString().endsWith(".java")).forEach(changed::add);
+                    }
+                }
+            } else if (path.toString().endsWith(".java") && Files.exists(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private void register(Path root) throws IOException {
+        try (var stream = Files.walk(root)) {
+            for (var directory : stream.filter(Files::isDirectory).toList()) {
+                var key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, directory);
+            }
+        }
+    }
+
+    private boolean regenerate(Path file, String relativePath) throws IOException {
+        String className = relativePath.substring(0, relativePath.length() - ".java".length());
+        Path patch = patchesRoot.resolve(className + PatchSet.SUFFIX);
+        CleanType clean = cleanTypes.get(relativePath);
+        if (clean == null) {
+            Path cleanPath = cleanRoot.resolve(relativePath);
+            if (!Files.exists(cleanPath)) {
+                throw new RuntimeException("Clean file does not exist: " + cleanPath);
+            }
+            clean = visitor.clean(buildType(relativePath, Files.readString(cleanPath)));
+            cleanTypes.put(relativePath, clean);
+        }
+        CtType<?> modified = buildType(relativePath, Files.readString(file));
+
+        ClassJavadoc javadoc = visitor.visit(clean, modified);
+        if (javadoc == null) {
+            Files.deleteIfExists(patch);
+            return false;
+        }
+        Files.createDirectories(patch.getParent());
+        Files.writeString(patch, Utils.toJson(className, javadoc));
+        return true;
+    }
+
+    private CtType<?> buildType(String relativePath, String contents) {
+        List<CtType<?>> types = Utils.buildModels(launchers.get(), Map.of(relativePath, contents)).get(relativePath);
+        if (types.size() != 1) {
+            throw new RuntimeException("Expected 1 type, found " + types.size());
+        }
+        return types.get(0);
+    }
+
+    private String relativePath(Path file) {
+        return StreamSupport.stream(modifiedRoot.relativize(file).spliterator(), false)
+            .map(Path::toString)
+            .collect(Collectors.joining("/"));
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
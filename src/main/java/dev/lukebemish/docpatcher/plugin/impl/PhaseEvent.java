@@ -0,0 +1,69 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Supplier;
+
+/**
+ * A JFR event spanning one phase of processing a single source or patch. When no recording has the event enabled,
+ * starting and finishing one does no more than check a flag, and the fields are never filled in.
+ */
+@Name("dev.lukebemish.docpatcher.Phase")
+@Label("DocPatcher Phase")
+@Description("A phase of processing a single source or patch")
+@Category("DocPatcher")
+@StackTrace(false)
+public final class PhaseEvent extends jdk.jfr.Event {
+    public static final String BUILD_MODEL = "build model";
+    public static final String STRIP = "strip javadocs";
+    public static final String EXPAND_LINKS = "expand links";
+    public static final String INJECT = "inject javadocs";
+    public static final String READ_JSON = "read json";
+    public static final String WRITE_JSON = "write json";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Class Name")
+    @Nullable String className;
+
+    @Label("Size")
+    @Description("Length of the source, comment or JSON being processed, in characters")
+    long size;
+
+    private PhaseEvent(String phase) {
+        this.phase = phase;
+    }
+
+    public static PhaseEvent start(String phase) {
+        var event = new PhaseEvent(phase);
+        event.begin();
+        return event;
+    }
+
+    public void finish(@Nullable String className, long size) {
+        end();
+        if (shouldCommit()) {
+            this.className = className;
+            this.size = size;
+            commit();
+        }
+    }
+
+    /**
+     * Finishes the event, only working out the class name if the event is recorded.
+     */
+    public void finish(Supplier<@Nullable String> className, long size) {
+        end();
+        if (shouldCommit()) {
+            this.className = className.get();
+            this.size = size;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+import org.jetbrains.annotations.Nullable;
+import spoon.reflect.factory.Factory;
+import spoon.support.compiler.jdt.JDTBasedSpoonCompiler;
+import spoon.support.compiler.jdt.JDTBatchCompiler;
+
+/**
+ * A model builder that borrows its classpath name environment from a pool for the duration of a build, instead of
+ * having JDT open and scan the classpath again for every model.
+ *
+ * <p>Spoon only asks JDT for compilation units and never runs a full batch compile, so nothing calls
+ * {@link FileSystem#cleanup()} on a leased environment, which would close its jars. The one thing an environment
+ * takes from the compilation that creates it is the list of source files, which it hides from classpath lookups; it is
+ * built without them, so that it holds nothing specific to any one compilation and later builds see what a fresh
+ * environment would.
+ */
+final class PooledModelBuilder extends JDTBasedSpoonCompiler {
+    private final NameEnvironmentPool pool;
+    private @Nullable FileSystem leased;
+
+    PooledModelBuilder(Factory factory, NameEnvironmentPool pool) {
+        super(factory);
+        this.pool = pool;
+    }
+
+    @Override
+    protected JDTBatchCompiler createBatchCompiler() {
+        return new JDTBatchCompiler(this) {
+            @Override
+            public FileSystem getLibraryAccess() {
+                if (leased == null) {
+                    leased = pool.acquire(() -> {
+                        var names = filenames;
+                        filenames = null;
+                        try {
+                            return super.getLibraryAccess();
+                        } finally {
+                            filenames = names;
+                        }
+                    });
+                }
+                return leased;
+            }
+        };
+    }
+
+    @Override
+    public boolean build() {
+        try {
+            return super.build();
+        } finally {
+            // The tree is fully built from JDT's units by now; later lookups go through reflection, not the environment
+            if (leased != null) {
+                pool.release(leased);
+                leased = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes output files as a zip with entries sorted by path and a fixed timestamp, so the same outputs always give the
+ * same archive. Entries are streamed straight into the zip as they are added, so they have to be added in path order;
+ * one that is not fails rather than giving an archive whose layout depends on scheduling. Closing an archive that was
+ * never finished deletes it.
+ */
+public final class SourceArchive implements AutoCloseable {
+    /**
+     * The timestamp used for every entry; the earliest a zip can represent, in local time, as Gradle uses for
+     * reproducible archives.
+     */
+    private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+    private final Path archive;
+    private @Nullable ZipOutputStream out;
+    private @Nullable String last;
+    private boolean finished;
+
+    public SourceArchive(Path archive) {
+        this.archive = archive;
+    }
+
+    public void put(String relativePath, String contents) throws IOException {
+        var stream = next(relativePath);
+        stream.write(contents.getBytes(StandardCharsets.UTF_8));
+        stream.closeEntry();
+    }
+
+    public void copy(String relativePath, Path source) throws IOException {
+        var stream = next(relativePath);
+        Files.copy(source, stream);
+        stream.closeEntry();
+    }
+
+    private ZipOutputStream next(String relativePath) throws IOException {
+        if (last != null && relativePath.compareTo(last) <= 0) {
+            throw new RuntimeException("Archive entry " + relativePath + " was added after " + last);
+        }
+        last = relativePath;
+        var stream = open();
+        var entry = new ZipEntry(relativePath);
+        entry.setTime(ENTRY_TIME);
+        stream.putNextEntry(entry);
+        return stream;
+    }
+
+    private ZipOutputStream open() throws IOException {
+        if (out == null) {
+            Files.createDirectories(archive.toAbsolutePath().getParent());
+            out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(archive)));
+        }
+        return out;
+    }
+
+    /**
+     * Completes the archive once every entry has been added; an archive given no entries is still written, empty.
+     */
+    public void finish() throws IOException {
+        open().close();
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            if (out != null) {
+                out.close();
+            }
+            Files.deleteIfExists(archive);
+        }
+    }
+}
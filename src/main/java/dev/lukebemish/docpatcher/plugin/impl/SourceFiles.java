@@ -0,0 +1,88 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+public final class SourceFiles {
+    private SourceFiles() {}
+
+    /**
+     * Rough estimate of the heap retained by a Spoon model, comments included, for each byte of parsed source.
+     */
+    private static final long HEAP_PER_SOURCE_BYTE = 48;
+
+    public record SourceFile(String relativePath, Path path, long size) {
+        public boolean isJava() {
+            return relativePath.endsWith(".java");
+        }
+
+        public String className() {
+            return relativePath.substring(0, relativePath.length() - ".java".length());
+        }
+    }
+
+    public static List<SourceFile> collect(Path root) {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (var stream = Files.walk(root)) {
+            return stream.filter(Files::isRegularFile).map(path -> {
+                try {
+                    return new SourceFile(relativePath(root, path), path, Files.size(path));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }).sorted(Comparator.comparing(SourceFile::relativePath)).toList();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The path of a file under the given root, relative to it and {@code /}-separated.
+     */
+    public static String relativePath(Path root, Path path) {
+        return StreamSupport.stream(root.relativize(path).spliterator(), false)
+            .map(Path::toString)
+            .collect(Collectors.joining("/"));
+    }
+
+    /**
+     * Splits files into chunks whose models are estimated to fit in the given budget. Without a budget, every file is
+     * its own chunk. A single file larger than the budget still gets a chunk to itself.
+     */
+    public static List<List<SourceFile>> partition(List<SourceFile> files, @Nullable Integer budgetMiB) {
+        List<List<SourceFile>> chunks = new ArrayList<>();
+        if (budgetMiB == null) {
+            for (var file : files) {
+                chunks.add(List.of(file));
+            }
+            return chunks;
+        }
+        long budget = budgetMiB * 1024L * 1024L;
+        List<SourceFile> current = new ArrayList<>();
+        long used = 0;
+        for (var file : files) {
+            long estimate = file.size() * HEAP_PER_SOURCE_BYTE;
+            if (!current.isEmpty() && used + estimate > budget) {
+                chunks.add(current);
+                current = new ArrayList<>();
+                used = 0;
+            }
+            current.add(file);
+            used += estimate;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+}
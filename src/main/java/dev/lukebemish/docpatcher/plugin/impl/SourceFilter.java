@@ -0,0 +1,96 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Restricts a run to some classes and packages. Classes are matched by the file that declares them, so a nested class
+ * selects its top-level class; packages are matched exactly, without their subpackages. An empty filter matches
+ * everything.
+ *
+ * <p>A filter may also select one of several shards, which split files between them by a hash of their package name;
+ * the hash is {@link String#hashCode()} of the dot-separated name, so the split is the same on every machine. Shards
+ * are not a selection in the sense of {@link #isEmpty()}: a shard is expected to produce its whole part of the output.
+ */
+public final class SourceFilter {
+    private final Set<String> classes;
+    private final Set<String> packages;
+    private final int shard;
+    private final int shardCount;
+
+    private SourceFilter(Set<String> classes, Set<String> packages, int shard, int shardCount) {
+        this.classes = classes;
+        this.packages = packages;
+        this.shard = shard;
+        this.shardCount = shardCount;
+    }
+
+    public static SourceFilter of(Collection<String> classes, Collection<String> packages) {
+        return new SourceFilter(
+            classes.stream().map(SourceFilter::topLevelPath).collect(Collectors.toUnmodifiableSet()),
+            packages.stream().map(it -> it.replace('.', '/')).collect(Collectors.toUnmodifiableSet()),
+            0,
+            1
+        );
+    }
+
+    /**
+     * Restricts this filter to the files of one shard out of the given number.
+     */
+    public SourceFilter shard(int shard, int shardCount) {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+            throw new RuntimeException("Invalid shard " + shard + " of " + shardCount);
+        }
+        return new SourceFilter(classes, packages, shard, shardCount);
+    }
+
+    public boolean isEmpty() {
+        return classes.isEmpty() && packages.isEmpty();
+    }
+
+    /**
+     * Whether the class declared by the file at the given {@code /}-separated path, without extension, is selected.
+     */
+    public boolean matches(String className) {
+        if (!inShard(className)) {
+            return false;
+        }
+        if (isEmpty() || classes.contains(className)) {
+            return true;
+        }
+        return packages.contains(packageOf(className));
+    }
+
+    /**
+     * Whether a file in the output of a run, at the given {@code /}-separated path, belongs to a selected class: a source
+     * by its own name, or a patch by the class it is for. Any other file belongs to no class, so it is only selected
+     * when nothing is filtered out.
+     */
+    public boolean matchesOutput(String relativePath) {
+        if (relativePath.endsWith(PatchSet.SUFFIX)) {
+            return matches(relativePath.substring(0, relativePath.length() - PatchSet.SUFFIX.length()));
+        }
+        if (relativePath.endsWith(".java")) {
+            return matches(relativePath.substring(0, relativePath.length() - ".java".length()));
+        }
+        return isEmpty() && inShard(relativePath);
+    }
+
+    /**
+     * Whether the file at the given {@code /}-separated path belongs to the selected shard, whatever else is selected.
+     */
+    public boolean inShard(String path) {
+        return shardCount == 1 || Math.floorMod(packageOf(path).replace('/', '.').hashCode(), shardCount) == shard;
+    }
+
+    private static String packageOf(String path) {
+        int packageEnd = path.lastIndexOf('/');
+        return packageEnd == -1 ? "" : path.substring(0, packageEnd);
+    }
+
+    private static String topLevelPath(String className) {
+        int nested = className.indexOf('$');
+        return (nested == -1 ? className : className.substring(0, nested)).replace('.', '/');
+    }
+}
@@ -0,0 +1,305 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+/**
+ * Runs source processing as a staged pipeline: files are walked, read and written on virtual threads, while parsing
+ * and transformation run on a fixed pool sized to the available processors. The number of chunks in flight is bounded,
+ * so a slow stage applies back-pressure to submission, and chunks are written in the order they were submitted. Given an
+ * archive, files that would go under the output root are streamed into it from that ordered stage instead, so files are
+ * then submitted in path order, and copied files are held back until the chunk before them in path order is written.
+ * Given timings, files are otherwise processed longest first, and the time each chunk takes is recorded for the next run.
+ *
+ * <p>Files already holding the contents they would be given are left untouched, so that their timestamps only change
+ * when their contents do; {@link #removeStale(Path)} then clears out whatever a run did not produce.
+ */
+public final class SourcePipeline implements AutoCloseable {
+    @FunctionalInterface
+    public interface Reader<T> {
+        T read(SourceFiles.SourceFile file) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Processor<T> {
+        List<Output> process(List<T> chunk);
+    }
+
+    /**
+     * Told how many files a run processes and when each chunk of them has been written. Calls after
+     * {@link #started(int)} happen one at a time, in submission order.
+     */
+    public interface Progress {
+        Progress NONE = new Progress() {};
+
+        default void started(int total) {}
+
+        default void completed(List<SourceFiles.SourceFile> chunk) {}
+
+        default void finished() {}
+    }
+
+    public record Source(SourceFiles.SourceFile file, String contents) {}
+
+    /**
+     * A file to write, relative to the given root, or to the pipeline's output root or archive if there is none.
+     */
+    public record Output(@Nullable Path root, String relativePath, String contents) {
+        public Output(String relativePath, String contents) {
+            this(null, relativePath, contents);
+        }
+    }
+
+    private final @Nullable Path outputRoot;
+    private final @Nullable SourceArchive archive;
+    private final @Nullable FileTimings timings;
+    private final Progress progress;
+    private final int parallelism;
+    private final ExecutorService io = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService compute;
+    private final Semaphore inFlight;
+    private final List<CompletableFuture<?>> pending = new ArrayList<>();
+    private final Set<Path> produced = ConcurrentHashMap.newKeySet();
+    private final Deque<SourceFiles.SourceFile> archiveCopies = new ArrayDeque<>();
+    private boolean submitted;
+    private CompletableFuture<?> written = CompletableFuture.completedFuture(null);
+    private volatile @Nullable Throwable failure;
+
+    public SourcePipeline(Path outputRoot) {
+        this(outputRoot, Progress.NONE);
+    }
+
+    public SourcePipeline(Path outputRoot, Progress progress) {
+        this(outputRoot, null, null, progress);
+    }
+
+    public SourcePipeline(Path outputRoot, @Nullable FileTimings timings, Progress progress) {
+        this(outputRoot, null, timings, progress);
+    }
+
+    public SourcePipeline(SourceArchive archive, @Nullable FileTimings timings, Progress progress) {
+        this(null, archive, timings, progress);
+    }
+
+    private SourcePipeline(@Nullable Path outputRoot, @Nullable SourceArchive archive, @Nullable FileTimings timings, Progress progress) {
+        this.outputRoot = outputRoot;
+        this.archive = archive;
+        this.timings = timings;
+        this.progress = progress;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+        this.compute = Executors.newFixedThreadPool(parallelism);
+        this.inFlight = new Semaphore(parallelism * 2);
+    }
+
+    public static Source read(SourceFiles.SourceFile file) throws IOException {
+        return new Source(file, Files.readString(file.path()));
+    }
+
+    public List<SourceFiles.SourceFile> walk(Path root) {
+        var files = join(CompletableFuture.supplyAsync(() -> SourceFiles.collect(root), io));
+        if (timings != null) {
+            timings.seen(files);
+        }
+        return files;
+    }
+
+    /**
+     * Partitions files into chunks, splitting the memory budget between the chunks that may be parsed at once. The
+     * files given are taken to be everything this run will process, for progress reporting; with timings, they are
+     * reordered so that the slowest are submitted first, unless they are going into an archive, which needs them in path
+     * order.
+     */
+    public List<List<SourceFiles.SourceFile>> partition(List<SourceFiles.SourceFile> files, @Nullable Integer budgetMiB) {
+        progress.started(files.size());
+        var ordered = timings == null || archive != null ? files : timings.longestFirst(files);
+        return SourceFiles.partition(ordered, budgetMiB == null ? null : Math.max(1, budgetMiB / parallelism));
+    }
+
+    /**
+     * Copies a file to the same relative path under the output root. Files going into an archive have to be copied in
+     * path order, before any chunk is submitted.
+     */
+    public void copy(SourceFiles.SourceFile file, boolean link) {
+        if (archive != null) {
+            if (submitted) {
+                throw new IllegalStateException("Files cannot be copied into an archive once chunks have been submitted");
+            }
+            archiveCopies.add(file);
+            return;
+        }
+        copy(file, Objects.requireNonNull(outputRoot), link);
+    }
+
+    /**
+     * Copies a file to the same relative path under the given root, rather than the pipeline's output.
+     */
+    public void copy(SourceFiles.SourceFile file, Path root, boolean link) {
+        rethrowFailure();
+        var target = root.resolve(file.relativePath());
+        produced.add(target.toAbsolutePath().normalize());
+        pending.add(track(CompletableFuture.runAsync(() -> {
+            try {
+                FileTransfer.transfer(file.path(), target, link);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, io)));
+    }
+
+    public <T> void submit(List<SourceFiles.SourceFile> chunk, Reader<T> reader, Processor<T> processor) {
+        rethrowFailure();
+        submitted = true;
+        inFlight.acquireUninterruptibly();
+        List<CompletableFuture<T>> reads = new ArrayList<>(chunk.size());
+        for (var file : chunk) {
+            reads.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return reader.read(file);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, io));
+        }
+        var processed = CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new))
+            .thenApplyAsync(ignored -> {
+                long start = System.nanoTime();
+                var outputs = processor.process(reads.stream().map(CompletableFuture::join).toList());
+                if (timings != null) {
+                    timings.record(chunk, System.nanoTime() - start);
+                }
+                return outputs;
+            }, compute);
+        written = track(CompletableFuture.allOf(written, processed)
+            .thenRunAsync(() -> {
+                write(processed.join());
+                progress.completed(chunk);
+            }, io))
+            .whenComplete((ignored, t) -> inFlight.release());
+    }
+
+    public void await() {
+        pending.add(written);
+        join(CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)));
+        copyToArchive(null);
+        if (timings != null) {
+            try {
+                timings.save();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void write(List<Output> outputs) {
+        try {
+            for (var output : outputs) {
+                if (output.root() == null && archive != null) {
+                    copyToArchive(output.relativePath());
+                    archive.put(output.relativePath(), output.contents());
+                    continue;
+                }
+                var path = (output.root() == null ? Objects.requireNonNull(outputRoot) : output.root()).resolve(output.relativePath());
+                produced.add(path.toAbsolutePath().normalize());
+                byte[] bytes = output.contents().getBytes(StandardCharsets.UTF_8);
+                if (Files.isRegularFile(path) && Files.size(path) == bytes.length && Arrays.equals(Files.readAllBytes(path), bytes)) {
+                    continue;
+                }
+                Files.createDirectories(path.getParent());
+                Files.write(path, bytes);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Streams the held back copies that come before the given path, or all of them, into the archive.
+     */
+    private void copyToArchive(@Nullable String before) {
+        try {
+            while (!archiveCopies.isEmpty() && (before == null || archiveCopies.peek().relativePath().compareTo(before) < 0)) {
+                var file = archiveCopies.poll();
+                Objects.requireNonNull(archive).copy(file.relativePath(), file.path());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes every file under the given root that this run did not write or copy there, along with any directories
+     * left empty. Only meaningful once the run is complete.
+     */
+    public void removeStale(Path root) {
+        removeStale(root, relativePath -> true);
+    }
+
+    /**
+     * Like {@link #removeStale(Path)}, but only deletes files whose {@code /}-separated path relative to the root is
+     * selected; the others are left alone whether this run wrote them or not.
+     */
+    public void removeStale(Path root, Predicate<String> selected) {
+        Utils.deleteFiles(root, path -> !produced.contains(path.toAbsolutePath().normalize()) && selected.test(SourceFiles.relativePath(root, path)));
+    }
+
+    private <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+        return future.whenComplete((ignored, t) -> {
+            if (t != null && failure == null) {
+                failure = t;
+            }
+        });
+    }
+
+    private void rethrowFailure() {
+        var t = failure;
+        if (t != null) {
+            throw unwrap(t);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable t) {
+        while (t instanceof CompletionException && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (t instanceof Error error) {
+            throw error;
+        }
+        return new RuntimeException(t);
+    }
+
+    @Override
+    public void close() {
+        progress.finished();
+        compute.shutdownNow();
+        io.shutdownNow();
+    }
+}
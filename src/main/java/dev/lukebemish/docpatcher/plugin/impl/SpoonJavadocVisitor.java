@@ -10,7 +10,9 @@
 import spoon.reflect.declaration.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
@@ -22,9 +24,9 @@ public abstract sealed class SpoonJavadocVisitor {
     private final boolean sanitize;
     private final JavadocImportProcessor javadocImportProcessor;
 
-    public SpoonJavadocVisitor(boolean sanitize, ClassLoader classLoader) {
+    public SpoonJavadocVisitor(boolean sanitize, ClasspathTypeIndex typeIndex) {
         this.sanitize = sanitize;
-        this.javadocImportProcessor = new JavadocImportProcessor(classLoader);
+        this.javadocImportProcessor = new JavadocImportProcessor(typeIndex);
     }
 
     protected @Nullable CtJavaDoc getJavadoc(CtElement element) {
@@ -33,8 +35,8 @@ public SpoonJavadocVisitor(boolean sanitize, ClassLoader classLoader) {
     }
 
     public static final class Simple extends SpoonJavadocVisitor {
-        public Simple(boolean sanitize, ClassLoader classLoader) {
-            super(sanitize, classLoader);
+        public Simple(boolean sanitize, ClasspathTypeIndex typeIndex) {
+            super(sanitize, typeIndex);
         }
 
         public ClassJavadoc visit(CtType<?> modified) {
@@ -123,8 +125,8 @@ private JavadocEntry visit(CtField<?> modified) {
     public static final class TagWrapper extends SpoonJavadocVisitor {
         private final String tag;
 
-        public TagWrapper(String tag, boolean sanitize, ClassLoader classLoader) {
-            super(sanitize, classLoader);
+        public TagWrapper(String tag, boolean sanitize, ClasspathTypeIndex typeIndex) {
+            super(sanitize, typeIndex);
             this.tag = tag;
         }
 
@@ -216,13 +218,39 @@ public JavadocEntry fromContent(String content) {
     }
 
     public static final class Comparing extends SpoonJavadocVisitor {
-        public Comparing(boolean sanitize, ClassLoader classLoader) {
-            super(sanitize, classLoader);
+        public Comparing(boolean sanitize, ClasspathTypeIndex typeIndex) {
+            super(sanitize, typeIndex);
         }
 
-        public ClassJavadoc visit(CtType<?> clean, CtType<?> modified) {
+        /**
+         * Reads what later comparisons need from a clean type, so that its model need not be kept.
+         */
+        public CleanType clean(CtType<?> clean) {
+            return clean(clean, JavadocImports.of(clean));
+        }
+
+        private CleanType clean(CtType<?> clean, JavadocImports imports) {
+            Map<String, CleanType.Member> methods = Stream.concat(clean.getMethods().stream(), (clean instanceof CtClass<?> ctClass) ? ctClass.getConstructors().stream() : Stream.<CtExecutable<?>>of()).collect(Collectors.toUnmodifiableMap(exec -> {
+                final boolean isCtor = exec instanceof CtConstructor<?>;
+                return (isCtor ? "<init>" : exec.getSimpleName()) + JVMSignatureBuilder.getJvmMethodSignature(exec);
+            }, exec -> new CleanType.Member(parseOriginal(exec, imports))));
+
+            Map<String, CleanType.Member> fields = clean.getFields().stream().collect(Collectors.toUnmodifiableMap(CtField::getSimpleName, field -> new CleanType.Member(parseOriginal(field, imports))));
+
+            Map<String, CleanType> nestedTypes = clean.getNestedTypes().stream()
+                .filter(t -> !t.isAnonymous() && !t.isLocalType())
+                .collect(Collectors.toUnmodifiableMap(CtType::getSimpleName, t -> clean(t, imports)));
+
+            return new CleanType(parseOriginal(clean, imports), methods, fields, nestedTypes, imports);
+        }
+
+        private @Nullable ParsedJavadoc parseOriginal(CtElement element, JavadocImports imports) {
+            var javadoc = getJavadoc(element);
+            return javadoc == null ? null : parse(javadoc, element, imports, false);
+        }
+
+        public ClassJavadoc visit(CleanType clean, CtType<?> modified) {
             var javadoc = getJavadoc(modified);
-            var originalJavadoc = getJavadoc(clean);
             JavadocEntry classJavadocEntry = null;
             if (javadoc != null) {
                 String[] parameters = null;
@@ -232,19 +260,12 @@ public ClassJavadoc visit(CtType<?> clean, CtType<?> modified) {
 
                 var typeParameters = modified.getFormalCtTypeParameters().stream().map(CtTypeParameter::getSimpleName).toArray(String[]::new);
 
-                classJavadocEntry = processJavadocs(javadoc, originalJavadoc, parameters, typeParameters, clean);
+                classJavadocEntry = processJavadocs(javadoc, clean.javadoc(), parameters, typeParameters, clean.imports());
             }
 
             Map<String, JavadocEntry> methods = new HashMap<>();
             Map<String, JavadocEntry> fields = new HashMap<>();
 
-            Map<String, CtExecutable<?>> cleanMethods = Stream.concat(clean.getMethods().stream(), (clean instanceof CtClass<?> ctClass) ? ctClass.getConstructors().stream() : Stream.<CtExecutable<?>>of()).collect(Collectors.toMap(exec -> {
-                final boolean isCtor = exec instanceof CtConstructor<?>;
-                return (isCtor ? "<init>" : exec.getSimpleName()) + JVMSignatureBuilder.getJvmMethodSignature(exec);
-            }, Function.identity()));
-
-            Map<String, CtField<?>> cleanFields = clean.getFields().stream().collect(Collectors.toMap(CtField::getSimpleName, Function.identity()));
-
             Map<String, CtExecutable<?>> modifiedMethods = Stream.concat(modified.getMethods().stream(), (modified instanceof CtClass<?> ctClass) ? ctClass.getConstructors().stream() : Stream.<CtExecutable<?>>of()).collect(Collectors.toMap(exec -> {
                 final boolean isCtor = exec instanceof CtConstructor<?>;
                 return (isCtor ? "<init>" : exec.getSimpleName()) + JVMSignatureBuilder.getJvmMethodSignature(exec);
@@ -252,46 +273,45 @@ public ClassJavadoc visit(CtType<?> clean, CtType<?> modified) {
 
             Map<String, CtField<?>> modifiedFields = modified.getFields().stream().collect(Collectors.toMap(CtField::getSimpleName, Function.identity()));
 
-            for (String desc : Sets.union(cleanMethods.keySet(), modifiedMethods.keySet())) {
-                CtExecutable<?> cleanMethod = cleanMethods.get(desc);
+            for (String desc : Sets.union(clean.methods().keySet(), modifiedMethods.keySet())) {
+                CleanType.Member cleanMethod = clean.methods().get(desc);
                 CtExecutable<?> modifiedMethod = modifiedMethods.get(desc);
                 if (cleanMethod == null) {
-                    throw new RuntimeException("Clean method is null for " + desc + " in " + clean.getQualifiedName());
+                    throw new RuntimeException("Clean method is null for " + desc + " in " + modified.getQualifiedName());
                 }
                 if (modifiedMethod == null) {
                     throw new RuntimeException("Modified method is null for " + desc + " in " + modified.getQualifiedName());
                 }
-                var visited = visit(cleanMethod, modifiedMethod);
+                var visited = visit(cleanMethod, clean.imports(), modifiedMethod);
                 if (visited != null) {
                     methods.put(desc, visited);
                 }
             }
 
-            for (String desc : Sets.union(cleanFields.keySet(), modifiedFields.keySet())) {
-                CtField<?> cleanField = cleanFields.get(desc);
+            for (String desc : Sets.union(clean.fields().keySet(), modifiedFields.keySet())) {
+                CleanType.Member cleanField = clean.fields().get(desc);
                 CtField<?> modifiedField = modifiedFields.get(desc);
                 if (cleanField == null) {
-                    throw new RuntimeException("Clean field is null for " + desc + " in " + clean.getQualifiedName());
+                    throw new RuntimeException("Clean field is null for " + desc + " in " + modified.getQualifiedName());
                 }
                 if (modifiedField == null) {
                     throw new RuntimeException("Modified field is null for " + desc + " in " + modified.getQualifiedName());
                 }
-                var visited = visit(cleanField, modifiedField);
+                var visited = visit(cleanField, clean.imports(), modifiedField);
                 if (visited != null) {
                     fields.put(desc, visited);
                 }
             }
 
-            Map<String, CtType<?>> cleanInnerClasses = clean.getNestedTypes().stream().filter(t -> !t.isAnonymous() && !t.isLocalType()).collect(Collectors.toMap(CtType::getSimpleName, Function.identity()));
             Map<String, CtType<?>> modifiedInnerClasses = modified.getNestedTypes().stream().filter(t -> !t.isAnonymous() && !t.isLocalType()).collect(Collectors.toMap(CtType::getSimpleName, Function.identity()));
 
             Map<String, ClassJavadoc> innerClasses = new HashMap<>();
 
-            for (String desc : Sets.union(cleanInnerClasses.keySet(), modifiedInnerClasses.keySet())) {
-                CtType<?> cleanInnerClass = cleanInnerClasses.get(desc);
+            for (String desc : Sets.union(clean.nestedTypes().keySet(), modifiedInnerClasses.keySet())) {
+                CleanType cleanInnerClass = clean.nestedTypes().get(desc);
                 CtType<?> modifiedInnerClass = modifiedInnerClasses.get(desc);
                 if (cleanInnerClass == null) {
-                    throw new RuntimeException("Clean inner class is null for " + desc + " in " + clean.getQualifiedName());
+                    throw new RuntimeException("Clean inner class is null for " + desc + " in " + modified.getQualifiedName());
                 }
                 if (modifiedInnerClass == null) {
                     throw new RuntimeException("Modified inner class is null for " + desc + " in " + modified.getQualifiedName());
@@ -308,9 +328,8 @@ public ClassJavadoc visit(CtType<?> clean, CtType<?> modified) {
             return new ClassJavadoc(classJavadocEntry, methods.isEmpty() ? null : methods, fields.isEmpty() ? null : fields, innerClasses.isEmpty() ? null : innerClasses);
         }
 
-        private JavadocEntry visit(CtExecutable<?> clean, CtExecutable<?> modified) {
+        private JavadocEntry visit(CleanType.Member clean, JavadocImports imports, CtExecutable<?> modified) {
             var javadoc = getJavadoc(modified);
-            var originalJavadoc = getJavadoc(clean);
             JavadocEntry javadocEntry = null;
             if (javadoc != null) {
                 String[] parameters = modified.getParameters().stream().map(CtParameter::getSimpleName).toArray(String[]::new);
@@ -320,72 +339,55 @@ private JavadocEntry visit(CtExecutable<?> clean, CtExecutable<?> modified) {
                     typeParameters = formalTypeDeclarer.getFormalCtTypeParameters().stream().map(CtTypeParameter::getSimpleName).toArray(String[]::new);
                 }
 
-                javadocEntry = processJavadocs(javadoc, originalJavadoc, parameters, typeParameters, clean);
+                javadocEntry = processJavadocs(javadoc, clean.javadoc(), parameters, typeParameters, imports);
             }
 
             return javadocEntry;
         }
 
-        private JavadocEntry visit(CtField<?> clean, CtField<?> modified) {
+        private JavadocEntry visit(CleanType.Member clean, JavadocImports imports, CtField<?> modified) {
             var javadoc = getJavadoc(modified);
-            var originalJavadoc = getJavadoc(clean);
             JavadocEntry javadocEntry = null;
             if (javadoc != null) {
-                javadocEntry = processJavadocs(javadoc, originalJavadoc, null, null, clean);
+                javadocEntry = processJavadocs(javadoc, clean.javadoc(), null, null, imports);
             }
 
             return javadocEntry;
         }
     }
 
-    protected @Nullable JavadocEntry processJavadocs(CtJavaDoc javadoc, @Nullable CtJavaDoc originalJavadoc, String[] parameters, String[] typeParameters, @Nullable CtElement originalParent) {
-        CtElement parent = javadoc.getParent();
-
-        var content = javadoc.getLongDescription();
-        if (!content.equals(javadoc.getShortDescription())) {
-            content = javadoc.getShortDescription() + '\n' + content;
-        }
-        content = javadocImportProcessor.expand(parent, content, originalParent);
+    protected @Nullable JavadocEntry processJavadocs(CtJavaDoc javadoc, @Nullable ParsedJavadoc original, String[] parameters, String[] typeParameters, @Nullable JavadocImports originalImports) {
+        var parsed = parse(javadoc, javadoc.getParent(), originalImports, true);
+        var content = parsed.content();
         Map<String, List<String>> tags = new HashMap<>();
-        for (var tag : javadoc.getTags()) {
-            String tagContent = sanitize(tag.getContent());
-            if (tag.getType().hasParam()) {
-                tagContent = tag.getParam() + " " + tagContent;
-            }
-            tagContent = processTag(parent, tagContent, tag.getRealName(), originalParent);
-            tags.computeIfAbsent(tag.getRealName(), k -> new ArrayList<>()).add(tagContent);
-        }
+        parsed.tags().forEach((name, values) -> tags.put(name, new ArrayList<>(values)));
         String finalContent = sanitize(content);
-        if (originalJavadoc != null) {
-            var originalContent = originalJavadoc.getLongDescription();
-            if (!originalContent.equals(originalJavadoc.getShortDescription())) {
-                originalContent = originalJavadoc.getShortDescription() + '\n' + originalContent;
-            }
-            originalContent = javadocImportProcessor.expand(originalParent, originalContent, originalParent);
-            if (content.equals(originalContent)) {
+        if (original != null) {
+            if (content.equals(original.content())) {
                 finalContent = null;
             }
-            for (var tag : originalJavadoc.getTags()) {
-                String tagContent = tag.getContent();
-                if (tag.getType().hasParam()) {
-                    tagContent = tag.getParam() + " " + tagContent;
-                }
-                tagContent = processTag(originalParent, tagContent, tag.getRealName(), originalParent);
-                tags.computeIfAbsent(tag.getRealName(), k -> new ArrayList<>()).remove(tagContent);
-                if (tags.get(tag.getRealName()).isEmpty()) {
-                    tags.remove(tag.getRealName());
+            original.tags().forEach((name, values) -> {
+                var remaining = tags.get(name);
+                if (remaining != null) {
+                    removeOnce(remaining, values);
+                    if (remaining.isEmpty()) {
+                        tags.remove(name);
+                    }
                 }
-            }
+            });
         }
 
+        var params = tags.get("param");
+        Map<String, String> paramIndex = params == null ? Map.of() : ParsedJavadoc.indexParams(params);
+        List<String> consumed = new ArrayList<>();
+
         List<String> parametersOut = null;
-        if (parameters != null && tags.containsKey("param")) {
-            var params = tags.get("param");
+        if (parameters != null && params != null) {
             parametersOut = new ArrayList<>();
             for (String parameter : parameters) {
-                var optional = params.stream().filter(s -> s.trim().split(" ")[0].equals(parameter)).findFirst();
-                if (optional.isPresent()) {
-                    String trimmedDoc = optional.get().trim();
+                var found = paramIndex.remove(parameter);
+                if (found != null) {
+                    String trimmedDoc = found.trim();
                     String doc;
                     if (trimmedDoc.length() <= parameter.length()+1) {
                         doc = "";
@@ -394,31 +396,31 @@ private JavadocEntry visit(CtField<?> clean, CtField<?> modified) {
                     }
                     String trimmed = doc.lines().map(String::trim).collect(Collectors.joining(" "));
                     parametersOut.add(trimmed);
-                    params.remove(optional.get());
+                    consumed.add(found);
                 } else {
                     parametersOut.add("");
                 }
             }
-            if (params.isEmpty()) {
-                tags.remove("param");
-            }
         }
 
         List<String> typeParametersOut = null;
-        if (typeParameters != null && tags.containsKey("param")) {
-            var params = tags.get("param");
+        if (typeParameters != null && params != null && consumed.size() < params.size()) {
             typeParametersOut = new ArrayList<>();
             for (String parameter : typeParameters) {
-                var optional = params.stream().filter(s -> s.trim().split(" ")[0].equals('<'+parameter+'>')).findFirst();
-                if (optional.isPresent()) {
-                    String doc = optional.get().trim().substring(parameter.length()+3).trim();
+                var found = paramIndex.remove('<'+parameter+'>');
+                if (found != null) {
+                    String doc = found.trim().substring(parameter.length()+3).trim();
                     String trimmed = doc.lines().map(String::trim).collect(Collectors.joining(" "));
                     typeParametersOut.add(trimmed);
-                    params.remove(optional.get());
+                    consumed.add(found);
                 } else {
                     typeParametersOut.add("");
                 }
             }
+        }
+
+        if (params != null) {
+            removeOnce(params, consumed);
             if (params.isEmpty()) {
                 tags.remove("param");
             }
@@ -431,6 +433,47 @@ private JavadocEntry visit(CtField<?> clean, CtField<?> modified) {
         return null;
     }
 
+    protected ParsedJavadoc parse(CtJavaDoc javadoc, CtElement parent, @Nullable JavadocImports originalImports, boolean sanitizeTags) {
+        var content = javadoc.getLongDescription();
+        if (!content.equals(javadoc.getShortDescription())) {
+            content = javadoc.getShortDescription() + '\n' + content;
+        }
+        content = javadocImportProcessor.expand(parent, content, originalImports);
+        Map<String, List<String>> tags = new LinkedHashMap<>();
+        for (var tag : javadoc.getTags()) {
+            String tagContent = sanitizeTags ? sanitize(tag.getContent()) : tag.getContent();
+            if (tag.getType().hasParam()) {
+                tagContent = tag.getParam() + " " + tagContent;
+            }
+            tagContent = processTag(parent, tagContent, tag.getRealName(), originalImports);
+            tags.computeIfAbsent(tag.getRealName(), k -> new ArrayList<>()).add(tagContent);
+        }
+        tags.replaceAll((name, values) -> List.copyOf(values));
+        return new ParsedJavadoc(content, Collections.unmodifiableMap(tags));
+    }
+
+    /**
+     * Removes one occurrence from {@code list} of each string in {@code toRemove}, as repeated {@link List#remove(Object)}
+     * calls would, in a single pass.
+     */
+    private static void removeOnce(List<String> list, List<String> toRemove) {
+        if (toRemove.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (var value : toRemove) {
+            counts.merge(value, 1, Integer::sum);
+        }
+        list.removeIf(value -> {
+            Integer count = counts.get(value);
+            if (count == null || count == 0) {
+                return false;
+            }
+            counts.put(value, count - 1);
+            return true;
+        });
+    }
+
     protected String sanitize(String string) {
         if (!sanitize) {
             return string;
@@ -438,7 +481,7 @@ protected String sanitize(String string) {
         return StringEscapeUtils.escapeHtml4(string);
     }
 
-    private String processTag(CtElement parent, String tagContent, String tag, @Nullable CtElement original) {
+    private String processTag(CtElement parent, String tagContent, String tag, @Nullable JavadocImports original) {
         tagContent = javadocImportProcessor.processBlockTag(tag, parent, tagContent, original);
         tagContent = tagContent.lines().map(String::trim).collect(Collectors.joining("\n"));
         return tagContent;
@@ -1,28 +1,19 @@
 package dev.lukebemish.docpatcher.plugin.impl;
 
-import net.neoforged.javadoctor.injector.spoon.JVMSignatureBuilder;
 import net.neoforged.javadoctor.spec.ClassJavadoc;
 import net.neoforged.javadoctor.spec.JavadocEntry;
-import spoon.reflect.declaration.*;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class SpoonRemainingVisitor {
-    public ClassJavadoc visit(CtType<?> clean, ClassJavadoc original) {
+    public ClassJavadoc visit(ClassSignatures clean, ClassJavadoc original) {
         Map<String, JavadocEntry> methods = new HashMap<>();
         Map<String, JavadocEntry> fields = new HashMap<>();
 
-        Set<String> cleanMethods = Stream.concat(clean.getMethods().stream(), (clean instanceof CtClass<?> ctClass) ? ctClass.getConstructors().stream() : Stream.<CtExecutable<?>>of()).map(exec -> {
-            final boolean isCtor = exec instanceof CtConstructor<?>;
-            return (isCtor ? "<init>" : exec.getSimpleName()) + JVMSignatureBuilder.getJvmMethodSignature(exec);
-        }).collect(Collectors.toSet());
-
-        Set<String> cleanFields = clean.getFields().stream().map(CtField::getSimpleName).collect(Collectors.toSet());
+        Set<String> cleanMethods = clean.methods();
+        Set<String> cleanFields = clean.fields();
 
         if (original.fields() != null) {
             for (var entry : original.fields().entrySet()) {
@@ -40,7 +31,7 @@ public ClassJavadoc visit(CtType<?> clean, ClassJavadoc original) {
             }
         }
 
-        Map<String, CtType<?>> cleanInnerClasses = clean.getNestedTypes().stream().filter(t -> !t.isAnonymous() && !t.isLocalType()).collect(Collectors.toMap(CtType::getSimpleName, Function.identity()));
+        Map<String, ClassSignatures> cleanInnerClasses = clean.nestedTypes();
 
         Map<String, ClassJavadoc> innerClasses = new HashMap<>();
 
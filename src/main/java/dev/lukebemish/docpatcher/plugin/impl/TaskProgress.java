@@ -0,0 +1,115 @@
+package dev.lukebemish.docpatcher.plugin.impl;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.internal.logging.progress.ProgressLogger;
+import org.gradle.internal.logging.progress.ProgressLoggerFactory;
+import org.jetbrains.annotations.Nullable;
+
+import javax.inject.Inject;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows a pipeline's progress in Gradle's progress display: files done out of the total, throughput, and the package
+ * last written. A summary line goes to the info log at most every {@link #SUMMARY_INTERVAL_NANOS}, and once at the end.
+ *
+ * <p>Gradle has no public API for its progress display, so this is the one place that uses the internal
+ * {@link ProgressLoggerFactory}. Tasks only hand over their {@link ObjectFactory}; if a Gradle version no longer
+ * provides the factory, or has changed it, progress falls back to the summary lines alone.
+ */
+public final class TaskProgress implements SourcePipeline.Progress {
+    private static final long SUMMARY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Looks up the internal progress logger factory through Gradle's injection, keeping it out of task signatures.
+     */
+    public abstract static class Services {
+        @Inject
+        public abstract ProgressLoggerFactory getProgressLoggerFactory();
+    }
+
+    private final @Nullable ProgressLoggerFactory factory;
+    private final Logger logger;
+    private final String description;
+    private @Nullable ProgressLogger progressLogger;
+    private boolean running;
+    private volatile int total;
+    private volatile int done;
+    private volatile long start;
+    private volatile long lastSummary;
+
+    private TaskProgress(@Nullable ProgressLoggerFactory factory, Logger logger, String description) {
+        this.factory = factory;
+        this.logger = logger;
+        this.description = description;
+    }
+
+    public static TaskProgress create(ObjectFactory objects, Logger logger, String description) {
+        ProgressLoggerFactory factory;
+        try {
+            factory = objects.newInstance(Services.class).getProgressLoggerFactory();
+        } catch (RuntimeException | LinkageError e) {
+            logger.debug("Progress display unavailable, only logging summaries", e);
+            factory = null;
+        }
+        return new TaskProgress(factory, logger, description);
+    }
+
+    @Override
+    public synchronized void started(int total) {
+        this.total = total;
+        this.start = System.nanoTime();
+        this.lastSummary = start;
+        this.running = true;
+        if (factory != null) {
+            this.progressLogger = factory.newOperation(TaskProgress.class).start(description, status(null));
+        }
+    }
+
+    @Override
+    public synchronized void completed(List<SourceFiles.SourceFile> chunk) {
+        // Writes still running when the pipeline is closed may report in after it has finished
+        if (!running) {
+            return;
+        }
+        done += chunk.size();
+        String status = status(chunk.isEmpty() ? null : chunk.get(chunk.size() - 1));
+        if (progressLogger != null) {
+            progressLogger.progress(status);
+        }
+        long now = System.nanoTime();
+        if (now - lastSummary >= SUMMARY_INTERVAL_NANOS) {
+            lastSummary = now;
+            logger.info("{}: {}", description, status);
+        }
+    }
+
+    @Override
+    public synchronized void finished() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        logger.info("{}: {}", description, status(null));
+        if (progressLogger != null) {
+            progressLogger.completed();
+            progressLogger = null;
+        }
+    }
+
+    private String status(@Nullable SourceFiles.SourceFile last) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        var status = new StringBuilder()
+            .append(done).append('/').append(total).append(" files, ")
+            .append(String.format(Locale.ROOT, "%.1f", seconds > 0 ? done / seconds : 0)).append(" files/s");
+        if (last != null) {
+            int packageEnd = last.relativePath().lastIndexOf('/');
+            if (packageEnd != -1) {
+                status.append(", ").append(last.relativePath().substring(0, packageEnd).replace('/', '.'));
+            }
+        }
+        return status.toString();
+    }
+}
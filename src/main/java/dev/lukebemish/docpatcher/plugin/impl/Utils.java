@@ -4,47 +4,150 @@
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import net.neoforged.javadoctor.spec.ClassJavadoc;
+import org.jetbrains.annotations.Nullable;
 import spoon.Launcher;
+import spoon.SpoonModelBuilder;
 import spoon.reflect.CtModel;
+import spoon.reflect.declaration.CtType;
+import spoon.reflect.factory.Factory;
 import spoon.reflect.visitor.ForceFullyQualifiedProcessor;
+import spoon.support.compiler.VirtualFile;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public final class Utils {
     private Utils() {}
 
-    private static final Gson GSON = new GsonBuilder()
-        .disableHtmlEscaping()
-        .setPrettyPrinting()
-        .create();
+    /**
+     * Holds the Gson instance, so that it is only created once patches are read or written, and not whenever this
+     * class is loaded.
+     */
+    private static final class Json {
+        private static final Gson GSON = new GsonBuilder()
+            .disableHtmlEscaping()
+            .setPrettyPrinting()
+            .create();
+    }
 
-    public static String toJson(ClassJavadoc javadoc) {
-        return GSON.toJson(Data.serialize(javadoc));
+    public static String toJson(String className, ClassJavadoc javadoc) {
+        var event = PhaseEvent.start(PhaseEvent.WRITE_JSON);
+        var json = Json.GSON.toJson(Data.serialize(javadoc));
+        event.finish(className, json.length());
+        return json;
     }
 
-    public static ClassJavadoc fromJson(String json) throws IOException {
+    public static ClassJavadoc fromJson(String className, String json) throws IOException {
+        var event = PhaseEvent.start(PhaseEvent.READ_JSON);
         try {
-            return Data.deserializeClassJavadoc(GSON.fromJson(json, JsonElement.class));
+            return Data.deserializeClassJavadoc(Json.GSON.fromJson(json, JsonElement.class));
         } catch (Exception e) {
             throw new IOException(e);
+        } finally {
+            event.finish(className, json.length());
         }
     }
 
     public static Launcher makeLauncher(int javaVersion, ClassLoader classLoader) {
-        final Launcher launcher = new Launcher();
+        return makeLauncher(javaVersion, classLoader, null);
+    }
+
+    public static Launcher makeLauncher(int javaVersion, ClassLoader classLoader, @Nullable NameEnvironmentPool nameEnvironments) {
+        final Launcher launcher = newLauncher(javaVersion, classLoader, nameEnvironments);
         launcher.getEnvironment().setCommentEnabled(true);
+        launcher.addProcessor(new ForceFullyQualifiedProcessor());
+        return launcher;
+    }
+
+    /**
+     * Makes a launcher for models whose javadocs and declarations are read but which are never printed. Comments are
+     * attached, but no processors run: descriptors and expanded links are built from the qualified names of resolved
+     * references, which do not depend on whether a reference would print qualified, so rewriting every reference in
+     * the model as {@link #makeLauncher} does would only cost time.
+     */
+    public static Launcher makeModelLauncher(int javaVersion, ClassLoader classLoader, @Nullable NameEnvironmentPool nameEnvironments) {
+        final Launcher launcher = newLauncher(javaVersion, classLoader, nameEnvironments);
+        launcher.getEnvironment().setCommentEnabled(true);
+        return launcher;
+    }
+
+    /**
+     * Makes a launcher for models that are only read for their declarations: comments are not attached and no
+     * processors run. The classpath is still needed, as JVM descriptors depend on resolved parameter types.
+     */
+    public static Launcher makeSignatureLauncher(int javaVersion, ClassLoader classLoader, @Nullable NameEnvironmentPool nameEnvironments) {
+        final Launcher launcher = newLauncher(javaVersion, classLoader, nameEnvironments);
+        launcher.getEnvironment().setCommentEnabled(false);
+        return launcher;
+    }
+
+    private static Launcher newLauncher(int javaVersion, ClassLoader classLoader, @Nullable NameEnvironmentPool nameEnvironments) {
+        final Launcher launcher = nameEnvironments == null ? new Launcher() : new Launcher() {
+            @Override
+            public SpoonModelBuilder createCompiler(Factory factory) {
+                return new PooledModelBuilder(factory, nameEnvironments);
+            }
+        };
         launcher.getEnvironment().setIgnoreSyntaxErrors(true);
         launcher.getEnvironment().setComplianceLevel(javaVersion);
         launcher.getEnvironment().setInputClassLoader(classLoader);
-        launcher.addProcessor(new ForceFullyQualifiedProcessor());
         return launcher;
     }
 
+    /**
+     * Deletes a file or directory and everything in it, if it exists.
+     */
+    public static void delete(Path path) {
+        deleteFiles(path, file -> true);
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes the files under the given directory that match, and then any directories left empty; the directory
+     * itself is kept. Links are deleted rather than followed.
+     */
+    public static void deleteFiles(Path root, Predicate<Path> matches) {
+        if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (var stream = Files.walk(root)) {
+            // Reverse order visits the contents of a directory before the directory itself
+            for (var path : stream.sorted(Comparator.reverseOrder()).toList()) {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    if (!path.equals(root)) {
+                        try (var entries = Files.list(path)) {
+                            if (entries.findAny().isEmpty()) {
+                                Files.delete(path);
+                            }
+                        }
+                    }
+                } else if (matches.test(path)) {
+                    Files.delete(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static ClassLoader makeClassLoader(Stream<String> classpath) {
         return new URLClassLoader(classpath
             .map(path -> {
@@ -57,9 +160,51 @@ public static ClassLoader makeClassLoader(Stream<String> classpath) {
             .toArray(URL[]::new), null);
     }
 
-    public static CtModel buildModel(Launcher launcher) {
+    /**
+     * Builds a single model for several sources, grouping the top-level types by the name of the source that declares
+     * them. Sources that declare no types map to an empty list. Only the model is built; processors registered on the
+     * launcher are not run, so it should come from {@link #makeModelLauncher} or {@link #makeSignatureLauncher}.
+     */
+    public static Map<String, List<CtType<?>>> buildModels(Launcher launcher, Map<String, String> sources) {
+        Map<String, List<CtType<?>>> types = new LinkedHashMap<>();
+        long size = 0;
+        for (var source : sources.entrySet()) {
+            launcher.addInputResource(new VirtualFile(source.getValue(), source.getKey()));
+            types.put(source.getKey(), new ArrayList<>());
+            size += source.getValue().length();
+        }
+        var event = PhaseEvent.start(PhaseEvent.BUILD_MODEL);
         launcher.buildModel();
-        launcher.process();
-        return launcher.getModel();
+        CtModel model = launcher.getModel();
+        event.finish(() -> modelName(sources.keySet()), size);
+        for (var type : model.getAllTypes()) {
+            var file = type.getPosition().getFile();
+            String name = file == null ? null : matchSource(file.getPath().replace('\\', '/'), types.keySet());
+            if (name != null) {
+                types.get(name).add(type);
+            }
+        }
+        return types;
+    }
+
+    private static String modelName(Set<String> sources) {
+        if (sources.isEmpty()) {
+            return "no sources";
+        }
+        var first = sources.iterator().next();
+        return sources.size() == 1 ? first : first + " and " + (sources.size() - 1) + " more";
+    }
+
+    private static @Nullable String matchSource(String path, Set<String> names) {
+        if (names.contains(path)) {
+            return path;
+        }
+        String best = null;
+        for (var name : names) {
+            if (path.endsWith("/" + name) && (best == null || name.length() > best.length())) {
+                best = name;
+            }
+        }
+        return best;
     }
 }
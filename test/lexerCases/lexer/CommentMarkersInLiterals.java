@@ -0,0 +1,37 @@
+package lexer;
+
+/**
+ * Javadoc markers inside literals must not open or close a comment.
+ */
+public class CommentMarkersInLiterals {
+    /**
+     * Closes a comment only inside a string.
+     */
+    public static final String CLOSE = "*/";
+
+    /** Opens a javadoc only inside a string. */
+    public static final String OPEN = "/** not a doc */";
+
+    public static final String ESCAPED = "\" /** still a string */ \\";
+
+    public static final char QUOTE = '"';
+
+    public static final char SLASH = '/';
+
+    // A line comment with /** and */ in it
+    public static final String BLOCK = """
+        /**
+         * Not a doc, part of a text block with an escaped \""" and a "quote"
+         */
+        """;
+
+    /**/
+    public static final int EMPTY_COMMENT = 0;
+
+    /**
+     * The last javadoc, after everything above.
+     */
+    public static String describe() {
+        return CLOSE + OPEN + ESCAPED + QUOTE + SLASH + BLOCK + EMPTY_COMMENT;
+    }
+}
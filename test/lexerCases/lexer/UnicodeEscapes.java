@@ -0,0 +1,17 @@
+package lexer;
+
+/**
+ * The compiler reads unicode escapes before comments and literals, so a lexer that does not can misplace javadocs.
+ */
+public class UnicodeEscapes {
+    /*\u002a A javadoc opened through an escaped star. */
+    public static final String STAR = "*";
+
+    /** A javadoc closed through an escaped star and slash. \u002a\u002f
+    public static final String CLOSED = "";
+
+    public static final String QUOTED = "\u0022 + "/** inside a string, though an escaped quote hides it */";
+
+    /** A backslash before a u that is not an escape: \\u002a */
+    public static final String LITERAL = "\\u002a";
+}
@@ -0,0 +1,13 @@
+package lexer;
+
+/**
+ * Ends in comments that are never closed.
+ */
+public class UnterminatedComments {
+    /**
+     * A javadoc within the class.
+     */
+    public static final int VALUE = 1;
+}
+
+/** A javadoc that runs to the end of the file
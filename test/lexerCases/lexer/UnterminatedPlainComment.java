@@ -0,0 +1,8 @@
+package lexer;
+
+// No javadocs, so this source passes through untouched
+public class UnterminatedPlainComment {
+    public static final String TEXT = "/** */";
+}
+
+/* A block comment that runs to the end of the file